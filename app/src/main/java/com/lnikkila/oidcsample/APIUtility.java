@@ -3,18 +3,55 @@ package com.lnikkila.oidcsample;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.accounts.AccountManagerFuture;
+import android.accounts.OnAccountsUpdateListener;
 import android.content.Context;
 import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
 
-import com.github.kevinsawicki.http.HttpRequest;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMediaType;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.util.Charsets;
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+import com.lnikkila.oidcsample.http.OkHttpTransport;
+import com.lnikkila.oidcsample.oidc.CacheControl;
+import com.lnikkila.oidcsample.oidc.DiskResponseCache;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.OIDCMetrics;
 import com.lnikkila.oidcsample.oidc.OIDCUtils;
+import com.lnikkila.oidcsample.oidc.ResponseCache;
+import com.lnikkila.oidcsample.oidc.SingleFlight;
 import com.lnikkila.oidcsample.oidc.authenticator.Authenticator;
+import com.lnikkila.oidcsample.oidc.authenticator.TokenCache;
+import com.lnikkila.oidcsample.oidc.authenticator.TokenStore;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 
 /**
@@ -24,14 +61,189 @@ import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
  */
 public class APIUtility {
 
+    private static final String TAG = APIUtility.class.getSimpleName();
+
+    // Gson is thread-safe and caches its type adapters, so there's no point in creating more
+    private static final Gson gson = new Gson();
+
+    private static final AtomicLong avoidedRetryCount = new AtomicLong();
+
+    // Identical GETs for the same account that are made at the same time share one request
+    private static final SingleFlight<String, Object> inFlightGets = new SingleFlight<>();
+
+    private static final ResponseCache responseCache =
+            new ResponseCache(Config.apiResponseCacheSize);
+
+    private static DiskResponseCache diskCache;
+
+    // Stale responses from the disk cache are revalidated here, one at a time
+    private static final ExecutorService revalidationExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG + "-revalidation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // Cache file names of the responses that are waiting to be revalidated or being revalidated
+    private static final Set<String> pendingRevalidations =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static OnAccountsUpdateListener accountListener;
+
+    private static HttpTransport transport;
+    private static HttpRequestFactory requestFactory;
+
+    /**
+     * Returns the transport that API requests are made with, creating the one chosen in `Config`
+     * the first time.
+     */
+    public static synchronized HttpTransport getTransport() {
+        if (transport == null) {
+            if (Config.apiHttpEngine == Config.HttpEngines.OkHttp) {
+                transport = new OkHttpTransport(OkHttpTransport.newClient(
+                        Config.apiMaxIdleConnections, Config.apiKeepAliveDurationMillis));
+            } else {
+                transport = new NetHttpTransport();
+            }
+
+            requestFactory = transport.createRequestFactory();
+        }
+
+        return transport;
+    }
+
+    /**
+     * Makes API requests with the given transport from now on, e.g. one with a differently tuned
+     * connection pool, or a mock one in tests.
+     */
+    public static synchronized void setTransport(HttpTransport transport) {
+        APIUtility.transport = transport;
+        requestFactory = transport.createRequestFactory();
+    }
+
+    private static synchronized HttpRequestFactory getRequestFactory() {
+        getTransport();
+        return requestFactory;
+    }
+
     /**
      * Makes a GET request and parses the received JSON string as a Map.
      */
     public static Map getJson(Context context, String url, Account account)
             throws IOException {
 
-        String jsonString = makeRequest(context, HttpRequest.METHOD_GET, url, account);
-        return new Gson().fromJson(jsonString, Map.class);
+        return getJson(context, url, account, Map.class);
+    }
+
+    /**
+     * Makes a GET request and binds the received JSON to the given class.
+     *
+     * The JSON is parsed straight from the connection as it streams in, so the response body never
+     * has to be held in memory as a whole.
+     */
+    public static <T> T getJson(Context context, String url, Account account, Class<T> type)
+            throws IOException {
+
+        return type.cast(getJson(context, url, account, (Type) type));
+    }
+
+    /**
+     * Makes a GET request and binds the received JSON to the given type. Use this with a Gson
+     * `TypeToken` for generic types, e.g. lists of objects.
+     *
+     * Responses with a `Cache-Control: max-age` are served from memory until they go stale, to the
+     * same account only. If the same GET is already in flight for the account, this waits for its
+     * result instead of making another request. Either way the result may be shared with other
+     * callers, so don't modify it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getJson(final Context context, final String url, final Account account,
+                                final Type type) throws IOException {
+
+        final String scope = getCacheScope(account);
+        Object cached = responseCache.get(scope, url, type);
+
+        OIDCClient.getDefault().getMetrics().recordCacheLookup(OIDCMetrics.CACHE_API_RESPONSE,
+                cached != null);
+
+        if (cached != null) {
+            return (T) cached;
+        }
+
+        return (T) inFlightGets.execute(scope + ' ' + type + ' ' + url, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                HttpResponse response = execute(context, HttpMethods.GET, url, account, null,
+                        null, true);
+
+                long freshnessMillis = ResponseCache.getFreshnessMillis(
+                        response.getHeaders().getCacheControl(), response.getHeaders().getAge());
+
+                Object result = readJson(response, type);
+                responseCache.put(scope, url, type, result, freshnessMillis);
+
+                return result;
+            }
+        });
+    }
+
+    /**
+     * The cache that `getJson` serves fresh responses from.
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the cache that `makeRequest` keeps GET responses in, or null if it's turned off in
+     * `Config`.
+     */
+    public static synchronized DiskResponseCache getDiskCache(Context context) {
+        if (diskCache == null && Config.apiDiskCacheMaxBytes > 0) {
+            diskCache = new DiskResponseCache(new File(context.getCacheDir(), "api"),
+                    Config.apiDiskCacheMaxBytes);
+        }
+
+        return diskCache;
+    }
+
+    /**
+     * Starts dropping the cached responses of accounts as they're removed from the device.
+     */
+    public static synchronized void registerAccountListener(final Context context) {
+        if (accountListener != null) {
+            return;
+        }
+
+        accountListener = new OnAccountsUpdateListener() {
+            @Override
+            public void onAccountsUpdated(Account[] accounts) {
+                final Set<String> scopes = new HashSet<>();
+
+                for (Account account : accounts) {
+                    scopes.add(getCacheScope(account));
+                }
+
+                responseCache.retainScopes(scopes);
+
+                final DiskResponseCache diskCache = getDiskCache(context);
+
+                if (diskCache != null) {
+                    // Called on the main thread, so leave the file system to the background
+                    revalidationExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            diskCache.retainScopes(scopes);
+                        }
+                    });
+                }
+            }
+        };
+
+        AccountManager.get(context).addOnAccountsUpdatedListener(accountListener, null, true);
     }
 
     /**
@@ -39,23 +251,285 @@ public class APIUtility {
      *
      * If the request doesn't execute successfully on the first try, the tokens will be refreshed
      * and the request will be retried. If the second try fails, an exception will be raised.
+     *
+     * GET responses are kept in the disk cache. A cached response that is still fresh is returned
+     * without making a request. One that went stale less than
+     * `Config.apiStaleWhileRevalidateSeconds` ago is returned as well, and revalidated in the
+     * background so that the next call gets the current version. Any other cached response is
+     * revalidated first.
      */
     public static String makeRequest(Context context, String method, String url, Account account)
             throws IOException {
 
-        return makeRequest(context, method, url, account, true);
+        DiskResponseCache diskCache = getDiskCache(context);
+
+        if (!method.equals(HttpMethods.GET) || diskCache == null) {
+            return execute(context, method, url, account, null, null, true).parseAsString();
+        }
+
+        DiskResponseCache.Entry cached = diskCache.get(getCacheScope(account), url);
+
+        OIDCClient.getDefault().getMetrics().recordCacheLookup(OIDCMetrics.CACHE_API_DISK,
+                cached != null && cached.isFresh());
+
+        if (cached == null) {
+            return fetchAndCache(context, url, account, diskCache, null);
+        }
+
+        if (!cached.isFresh()) {
+            if (cached.isServableWhileRevalidating(
+                    Config.apiStaleWhileRevalidateSeconds * 1000)) {
+
+                revalidateInBackground(context, url, account, diskCache, cached);
+            } else {
+                return fetchAndCache(context, url, account, diskCache, cached);
+            }
+        }
+
+        return new String(cached.body, Charsets.UTF_8);
+    }
+
+    /**
+     * Executes the request with an ID Token that the caller has already fetched, e.g. one shared
+     * by a batch of requests for the same account. A rejected token is still renewed and the
+     * request retried once.
+     */
+    static HttpResponse execute(Context context, String method, String url, Account account,
+                                String idToken) throws IOException {
+
+        return execute(context, method, url, account, idToken, null, true);
+    }
+
+    /**
+     * Binds the JSON body of a successful request to the given type, straight from the stream.
+     */
+    static <T> T readJson(HttpResponse response, Type type) throws IOException {
+        // JSON is UTF-8 unless said otherwise, whereas HTTP's default is ISO-8859-1
+        HttpMediaType mediaType = response.getMediaType();
+        Charset charset = mediaType != null && mediaType.getCharsetParameter() != null
+                ? mediaType.getCharsetParameter() : Charsets.UTF_8;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(response.getContent(), charset));
+
+        try {
+            return gson.fromJson(reader, type);
+        } catch (JsonIOException e) {
+            throw new IOException("Could not read response.", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Makes a GET request, conditional if there's a cached response to revalidate, and stores the
+     * result in the disk cache. Returns the body, either the downloaded one or the cached one if
+     * it hasn't been modified.
+     *
+     * A response is only stored if it says how long it stays fresh, or if it can be revalidated
+     * later. `no-cache` and `max-age=0` responses are stored as already stale, so they're never
+     * returned without revalidating them.
+     */
+    private static String fetchAndCache(Context context, String url, Account account,
+                                        DiskResponseCache diskCache,
+                                        DiskResponseCache.Entry cached) throws IOException {
+
+        HttpHeaders conditionalHeaders = null;
+
+        if (cached != null && cached.hasValidators()) {
+            conditionalHeaders = new HttpHeaders()
+                    .setIfNoneMatch(cached.etag)
+                    .setIfModifiedSince(cached.lastModified);
+        }
+
+        HttpResponse response = execute(context, HttpMethods.GET, url, account, null,
+                conditionalHeaders, true);
+
+        HttpHeaders headers = response.getHeaders();
+        long freshnessMillis = ResponseCache.getFreshnessMillis(headers.getCacheControl(),
+                headers.getAge());
+
+        if (response.getStatusCode() == HTTP_NOT_MODIFIED) {
+            response.ignore();
+            diskCache.put(cached.revalidated(freshnessMillis));
+
+            return new String(cached.body, Charsets.UTF_8);
+        }
+
+        String body = response.parseAsString();
+        boolean cacheable = freshnessMillis > 0 || headers.getETag() != null
+                || headers.getLastModified() != null;
+
+        if (!cacheable || CacheControl.isNoStore(headers.getCacheControl())) {
+            diskCache.remove(getCacheScope(account), url);
+        } else {
+            long now = System.currentTimeMillis();
+
+            // Bodies are stored as UTF-8 whatever they came in, since we hand them out as strings
+            diskCache.put(new DiskResponseCache.Entry(getCacheScope(account), url,
+                    body.getBytes(Charsets.UTF_8), headers.getContentType(), headers.getETag(),
+                    headers.getLastModified(), now, now + freshnessMillis));
+        }
+
+        return body;
+    }
+
+    /**
+     * Revalidates a stale cached response on the revalidation thread, unless it's already queued
+     * up for that.
+     */
+    private static void revalidateInBackground(Context context, final String url,
+                                               final Account account,
+                                               final DiskResponseCache diskCache,
+                                               final DiskResponseCache.Entry cached) {
+
+        final String key = getCacheScope(account) + ' ' + url;
+
+        if (!pendingRevalidations.add(key)) {
+            return;
+        }
+
+        // The caller may well be an Activity, which mustn't outlive its screen with us
+        final Context applicationContext = context.getApplicationContext();
+
+        revalidationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetchAndCache(applicationContext, url, account, diskCache, cached);
+                } catch (IOException e) {
+                    // The stale response stays cached, we'll try again the next time it's used
+                    Log.w(TAG, "Could not revalidate " + url, e);
+                } finally {
+                    pendingRevalidations.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the request and returns it once it has succeeded, so that the caller can decide how
+     * to read the response. If no ID Token is given, one is fetched from the account.
+     *
+     * If conditional headers are given, a `304 Not Modified` counts as a success too.
+     */
+    private static HttpResponse execute(Context context, String method, String url,
+                                        Account account, String idToken,
+                                        HttpHeaders conditionalHeaders, boolean doRetry)
+            throws IOException {
+
+        AccountManager accountManager = AccountManager.get(context);
+
+        if (idToken == null) {
+            idToken = getValidIdToken(context, account);
+        }
+
+        OIDCMetrics metrics = OIDCClient.getDefault().getMetrics();
+
+        // Prepare an API request using the token
+        HttpRequest request = getRequestFactory().buildRequest(method, new GenericUrl(url), null);
+        request = OIDCUtils.prepareApiRequest(request, idToken);
+
+        if (conditionalHeaders != null) {
+            request.getHeaders().fromHttpHeaders(conditionalHeaders);
+        }
+
+        // Error responses are handled below, with the body still unread
+        request.setThrowExceptionOnExecuteError(false);
+
+        long startTime = System.nanoTime();
+        HttpResponse response;
+
+        try {
+            // Sends the request and waits for the response headers
+            response = request.execute();
+        } catch (IOException e) {
+            metrics.recordLatency(OIDCMetrics.ENDPOINT_API, System.nanoTime() - startTime, false);
+            throw e;
+        }
+
+        int code = response.getStatusCode();
+        boolean successful = response.isSuccessStatusCode()
+                || (conditionalHeaders != null && code == HTTP_NOT_MODIFIED);
+
+        metrics.recordLatency(OIDCMetrics.ENDPOINT_API, System.nanoTime() - startTime,
+                successful);
+
+        if (successful) {
+            return response;
+        }
+
+        // Let the connection go back to the pool
+        response.ignore();
+
+        if (doRetry && (code == HTTP_UNAUTHORIZED || code == HTTP_FORBIDDEN)) {
+            // We're being denied access on the first try, let's renew the token and retry
+            metrics.recordRetry(OIDCMetrics.ENDPOINT_API, code);
+            TokenStore.invalidateAuthToken(accountManager, account, idToken);
+
+            return execute(context, method, url, account, null, conditionalHeaders, false);
+        } else {
+            // An unrecoverable error or the renewed token didn't work either
+            throw new IOException(code + " " + response.getStatusMessage());
+        }
     }
 
-    private static String makeRequest(Context context, String method, String url, Account account,
-                                     boolean doRetry) throws IOException {
+    /**
+     * The number of times an expired token was renewed before sending a request, instead of
+     * after the request had already failed.
+     */
+    public static long getAvoidedRetryCount() {
+        return avoidedRetryCount.get();
+    }
 
+    /**
+     * Fetches the account's ID Token, renewing it first if it has already expired.
+     *
+     * Needs to be run on a separate thread.
+     */
+    static String getValidIdToken(Context context, Account account) throws IOException {
         AccountManager accountManager = AccountManager.get(context);
-        String idToken;
+        String idToken = getIdToken(accountManager, account);
+
+        // If we can already tell that the token has expired, there's no point in sending it just to
+        // get a 401 back. Renew it first and save ourselves the round trip.
+        if (Config.checkTokenExpiryBeforeRequest
+                && OIDCUtils.isIdTokenExpired(idToken, Config.tokenExpirySkewSeconds)) {
+
+            TokenStore.invalidateAuthToken(accountManager, account, idToken);
+
+            String expiredIdToken = idToken;
+            idToken = getIdToken(accountManager, account);
+
+            // Only a fresh token actually saves us the 401
+            if (idToken != null && !idToken.equals(expiredIdToken)
+                    && !OIDCUtils.isIdTokenExpired(idToken, Config.tokenExpirySkewSeconds)) {
+                avoidedRetryCount.incrementAndGet();
+            }
+        }
+
+        return idToken;
+    }
+
+    private static String getCacheScope(Account account) {
+        return account.type + '/' + account.name;
+    }
+
+    private static String getIdToken(AccountManager accountManager, Account account)
+            throws IOException {
+
+        // Most of the time the token is already in memory and we can skip the binder call
+        String cached = TokenCache.get(account, Authenticator.TOKEN_TYPE_ID);
+
+        if (cached != null) {
+            return cached;
+        }
 
         // Try retrieving an ID token from the account manager. The boolean true in the invocation
         // tells Android to show a notification if the token can't be retrieved. When the
         // notification is selected, it will launch the intent for re-authorisation. You could
         // launch it automatically here if you wanted to by grabbing the intent from the bundle.
+        String idToken;
+
         try {
             AccountManagerFuture<Bundle> futureManager = accountManager.getAuthToken(account,
                     Authenticator.TOKEN_TYPE_ID, null, true, null, null);
@@ -65,26 +539,13 @@ public class APIUtility {
             throw new IOException("Could not get ID token from account.", e);
         }
 
-        // Prepare an API request using the token
-        HttpRequest request = new HttpRequest(url, method);
-        request = OIDCUtils.prepareApiRequest(request, idToken);
-
-        if (request.ok()) {
-            return request.body();
-        } else {
-            int code = request.code();
-
-            if (doRetry && (code == HTTP_UNAUTHORIZED || code == HTTP_FORBIDDEN)) {
-                // We're being denied access on the first try, let's renew the token and retry
-                String accountType = context.getString(R.string.ACCOUNT_TYPE);
-                accountManager.invalidateAuthToken(accountType, idToken);
-
-                return makeRequest(context, method, url, account, false);
-            } else {
-                // An unrecoverable error or the renewed token didn't work either
-                throw new IOException(request.code() + " " + request.message());
-            }
+        // The refresh failed or was skipped because the provider is struggling. There's no point
+        // in sending the request just to get a 401 back.
+        if (TextUtils.isEmpty(idToken)) {
+            throw new IOException("Could not get ID token from account.");
         }
+
+        return idToken;
     }
 
 }
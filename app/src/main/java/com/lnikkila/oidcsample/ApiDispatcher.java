@@ -0,0 +1,450 @@
+package com.lnikkila.oidcsample;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpResponse;
+import com.lnikkila.oidcsample.oidc.OIDCCallback;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs API requests in the background with bounded concurrency, in two lanes: one for requests the
+ * user is waiting on and one for background traffic such as syncing.
+ *
+ * Each lane has its own limits on how many requests run at once, in total and per host, and its own
+ * bounded queue, so a burst of background requests can't take up the capacity of the interactive
+ * lane. Background requests also run with a background thread priority.
+ *
+ * Requests for the same account that are started while an ID Token is being fetched for them share
+ * that token, so a batch of queued requests only asks the account manager for it once. If an
+ * interactive request joins a batch whose token is being fetched by a background request, the fetch
+ * is bumped to the interactive priority, so the user doesn't wait on a background thread.
+ *
+ * Callbacks are delivered on the main thread.
+ *
+ * @author Camilo Montes
+ */
+public class ApiDispatcher {
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private static ApiDispatcher instance;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+
+    private final Lane interactiveLane;
+    private final Lane backgroundLane;
+
+    // Batches whose token is still being fetched, which queued requests for the account can join
+    private final Map<Account, TokenBatch> pendingBatches = new HashMap<>();
+
+    private final AtomicInteger tokenFetchCount = new AtomicInteger();
+
+    /**
+     * Returns the dispatcher configured in `Config`.
+     */
+    public static synchronized ApiDispatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new ApiDispatcher(context,
+                    new Lane(Config.maxInteractiveRequests, Config.maxInteractiveRequestsPerHost,
+                             Config.maxQueuedRequests),
+                    new Lane(Config.maxBackgroundRequests, Config.maxBackgroundRequestsPerHost,
+                             Config.maxQueuedRequests));
+        }
+
+        return instance;
+    }
+
+    private ApiDispatcher(Context context, Lane interactiveLane, Lane backgroundLane) {
+        this.context = context.getApplicationContext();
+        this.interactiveLane = interactiveLane;
+        this.backgroundLane = backgroundLane;
+
+        // The lanes decide how many requests run at once, the pool just supplies the threads
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ApiDispatcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues an arbitrary HTTP request, which delivers the response body to the callback. The
+     * returned future can be used to cancel the request.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full
+     */
+    public Future<String> enqueue(String method, String url, Account account, Priority priority,
+                                  OIDCCallback<String> callback) {
+
+        return enqueue(new Call<>(method, url, account, priority, new ResponseReader<String>() {
+            @Override
+            public String read(HttpResponse response) throws IOException {
+                return response.parseAsString();
+            }
+        }, callback));
+    }
+
+    /**
+     * Queues a GET request whose JSON response is bound to the given type. The JSON is parsed on
+     * the dispatcher's thread, so only the result reaches the main thread.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full
+     */
+    public <T> Future<T> enqueueJson(String url, Account account, final Type type,
+                                     Priority priority, OIDCCallback<T> callback) {
+
+        return enqueue(new Call<>(HttpMethods.GET, url, account, priority,
+                new ResponseReader<T>() {
+                    @Override
+                    public T read(HttpResponse response) throws IOException {
+                        return APIUtility.readJson(response, type);
+                    }
+                }, callback));
+    }
+
+    /**
+     * The number of requests that are waiting for a free slot in the given lane.
+     */
+    public synchronized int getQueuedCount(Priority priority) {
+        return getLane(priority).queue.size();
+    }
+
+    /**
+     * The number of requests that are running in the given lane.
+     */
+    public synchronized int getRunningCount(Priority priority) {
+        return getLane(priority).runningCount;
+    }
+
+    /**
+     * The number of times an ID Token was fetched for a batch of requests.
+     */
+    public int getTokenFetchCount() {
+        return tokenFetchCount.get();
+    }
+
+    private <T> Future<T> enqueue(Call<T> call) {
+        synchronized (this) {
+            Lane lane = getLane(call.priority);
+
+            if (lane.queue.size() >= lane.maxQueued) {
+                throw new RejectedExecutionException(String.format(
+                        "Too many queued %s requests.", call.priority.name().toLowerCase()));
+            }
+
+            lane.queue.add(call);
+        }
+
+        promoteCalls();
+
+        return call.future;
+    }
+
+    /**
+     * Starts as many queued calls as the lanes allow. Calls whose host is at its limit stay queued
+     * without holding up calls to other hosts.
+     */
+    private synchronized void promoteCalls() {
+        promoteCalls(interactiveLane);
+        promoteCalls(backgroundLane);
+    }
+
+    private void promoteCalls(Lane lane) {
+        Iterator<Call<?>> iterator = lane.queue.iterator();
+
+        while (iterator.hasNext() && lane.runningCount < lane.maxRequests) {
+            Call<?> call = iterator.next();
+
+            if (call.future.isCancelled()) {
+                iterator.remove();
+                continue;
+            }
+
+            if (lane.getHostCount(call.host) >= lane.maxRequestsPerHost) {
+                continue;
+            }
+
+            iterator.remove();
+
+            lane.runningCount++;
+            lane.hostCounts.put(call.host, lane.getHostCount(call.host) + 1);
+
+            call.batch = getBatch(call.account);
+            executor.execute(call);
+        }
+    }
+
+    /**
+     * Returns the batch whose token is still being fetched for the account, or starts a new one.
+     */
+    private TokenBatch getBatch(Account account) {
+        TokenBatch batch = pendingBatches.get(account);
+
+        if (batch == null || batch.token.isDone()) {
+            batch = new TokenBatch(account);
+            pendingBatches.put(account, batch);
+        }
+
+        return batch;
+    }
+
+    private void finished(Call<?> call) {
+        synchronized (this) {
+            Lane lane = getLane(call.priority);
+
+            lane.runningCount--;
+
+            int hostCount = lane.getHostCount(call.host) - 1;
+
+            if (hostCount > 0) {
+                lane.hostCounts.put(call.host, hostCount);
+            } else {
+                lane.hostCounts.remove(call.host);
+            }
+
+            if (pendingBatches.get(call.account) == call.batch && call.batch.token.isDone()) {
+                pendingBatches.remove(call.account);
+            }
+        }
+
+        promoteCalls();
+    }
+
+    private Lane getLane(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactiveLane : backgroundLane;
+    }
+
+    private static int getThreadPriority(Priority priority) {
+        return priority == Priority.BACKGROUND
+                ? Process.THREAD_PRIORITY_BACKGROUND
+                : Process.THREAD_PRIORITY_DEFAULT;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            // The request will fail on its own, it doesn't matter which host it's counted against
+            return url;
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    private interface ResponseReader<T> {
+
+        T read(HttpResponse response) throws IOException;
+
+    }
+
+    /**
+     * The limits and bookkeeping of a lane. Only accessed while holding the dispatcher's lock.
+     */
+    private static class Lane {
+
+        final int maxRequests;
+        final int maxRequestsPerHost;
+        final int maxQueued;
+
+        final ArrayDeque<Call<?>> queue = new ArrayDeque<>();
+        final Map<String, Integer> hostCounts = new HashMap<>();
+        int runningCount;
+
+        Lane(int maxRequests, int maxRequestsPerHost, int maxQueued) {
+            this.maxRequests = maxRequests;
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            this.maxQueued = maxQueued;
+        }
+
+        int getHostCount(String host) {
+            Integer count = hostCounts.get(host);
+            return count != null ? count : 0;
+        }
+
+    }
+
+    /**
+     * An ID Token shared by the requests of a batch. Whichever of them runs first fetches it, at the
+     * priority of the most urgent request that's waiting for it.
+     */
+    private class TokenBatch {
+
+        final FutureTask<String> token;
+
+        // The thread fetching the token, or 0 if it's not being fetched right now
+        private int fetcherTid;
+        private boolean hasInteractiveWaiter;
+
+        TokenBatch(final Account account) {
+            token = new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    startFetching();
+
+                    try {
+                        tokenFetchCount.incrementAndGet();
+                        return APIUtility.getValidIdToken(context, account);
+                    } finally {
+                        stopFetching();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the token, fetching it on this thread if no one else has started to. The caller
+         * should restore its thread priority afterwards, since fetching may have raised it.
+         */
+        String getIdToken(Priority priority) throws Exception {
+            if (priority == Priority.INTERACTIVE) {
+                boost();
+            }
+
+            token.run();
+
+            try {
+                return token.get();
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        private synchronized void startFetching() {
+            fetcherTid = Process.myTid();
+
+            if (hasInteractiveWaiter) {
+                Process.setThreadPriority(getThreadPriority(Priority.INTERACTIVE));
+            }
+        }
+
+        private synchronized void stopFetching() {
+            fetcherTid = 0;
+        }
+
+        private synchronized void boost() {
+            hasInteractiveWaiter = true;
+
+            if (fetcherTid != 0) {
+                Process.setThreadPriority(fetcherTid, getThreadPriority(Priority.INTERACTIVE));
+            }
+        }
+
+    }
+
+    private class Call<T> implements Runnable {
+
+        final String method;
+        final String url;
+        final String host;
+        final Account account;
+        final Priority priority;
+        final FutureTask<T> future;
+
+        TokenBatch batch;
+
+        Call(String method, String url, Account account, Priority priority,
+             final ResponseReader<T> reader, final OIDCCallback<T> callback) {
+
+            this.method = method;
+            this.url = url;
+            this.host = getHost(url);
+            this.account = account;
+            this.priority = priority;
+
+            future = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    String idToken = batch.getIdToken(Call.this.priority);
+
+                    // Fetching the token for an interactive request may have raised it
+                    Process.setThreadPriority(getThreadPriority(Call.this.priority));
+
+                    HttpResponse response = APIUtility.execute(context, Call.this.method,
+                            Call.this.url, Call.this.account, idToken);
+
+                    try {
+                        return reader.read(response);
+                    } finally {
+                        response.ignore();
+                    }
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (callback != null && !isCancelled()) {
+                        deliver(this, callback);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(getThreadPriority(priority));
+
+            try {
+                future.run();
+            } finally {
+                finished(this);
+            }
+        }
+
+    }
+
+    private <T> void deliver(final Future<T> future, final OIDCCallback<T> callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+
+                try {
+                    result = future.get();
+                } catch (InterruptedException | CancellationException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    callback.onFailure(unwrap(e));
+                    return;
+                }
+
+                callback.onSuccess(result);
+            }
+        });
+    }
+
+}
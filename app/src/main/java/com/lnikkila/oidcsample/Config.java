@@ -15,10 +15,22 @@ public final class Config {
     public static final String clientId = "foobar";
     public static final String clientSecret = "xyzzy";
 
+    // The endpoints are resolved from the provider's discovery document, so that changes on the
+    // provider's side don't need a new release. The URLs below are only used for whatever the
+    // document leaves out, or if it has never been fetched successfully. Set the discovery URL to
+    // null to always use them.
+    public static final String discoveryUrl =
+            "https://www.example.com/.well-known/openid-configuration";
+
     public static final String authorizationServerUrl = "https://www.example.com/oauth2/authorize";
     public static final String tokenServerUrl = "https://www.example.com/oauth2/token";
     public static final String userInfoUrl = "https://www.example.com/oauth2/userinfo";
 
+    // ID Token signatures are verified against the provider's JSON Web Key Set, and the `iss` claim
+    // against the issuer. Set the key set URL to null to skip verifying signatures.
+    public static final String issuer = "https://www.example.com";
+    public static final String jwksUrl = "https://www.example.com/oauth2/jwks";
+
     // This URL doesn't really have a use with native apps and basically just signifies the end
     // of the authorisation process. It doesn't have to be a real URL, but it does have to be the
     // same URL that is registered with your provider.
@@ -42,4 +54,92 @@ public final class Config {
     // For more info see http://openid.net/specs/openid-connect-core-1_0.html#Authentication
     public static final Flows flowType = Flows.Hybrid;
 
+    // Token requests share a pool of keep-alive connections, so that we don't have to do a new TLS
+    // handshake with the provider on every exchange. These control how many idle connections are
+    // kept around and for how long.
+    public static final int maxConnections = 5;
+    public static final long keepAliveDurationMillis = 5 * 60 * 1000;
+
+    public enum HttpEngines
+    {
+        UrlConnection,      // HttpURLConnection, HTTP/1.1 only
+        OkHttp              // HTTP/2 where the server supports it, gzip and Brotli
+    }
+
+    // The HTTP engine that API requests are made with. With OkHttp, concurrent requests to an API
+    // that speaks HTTP/2 share a single connection. HTTP/2 needs ALPN, which Android has from 5.0
+    // on, older versions fall back to HTTP/1.1. The API has a connection pool of its own, sized by
+    // the settings below.
+    public static final HttpEngines apiHttpEngine = HttpEngines.OkHttp;
+    public static final int apiMaxIdleConnections = 5;
+    public static final long apiKeepAliveDurationMillis = 5 * 60 * 1000;
+
+    // While the login page is shown, a connection to the Token Endpoint is kept open for the code
+    // exchange. It's warmed up again this often, since servers tend to close idle connections
+    // after a minute or so.
+    public static final long connectionWarmUpIntervalSeconds = 30;
+
+    // Tokens are refreshed in the background this many seconds before they expire, minus a random
+    // jitter of up to `tokenRefreshJitterSeconds` so that accounts don't all refresh at once.
+    public static final long tokenRefreshLeadTimeSeconds = 60;
+    public static final long tokenRefreshJitterSeconds = 30;
+
+    // A background refresh that fails because the provider couldn't be reached is tried again after
+    // a backoff that starts at `tokenRefreshRetryInitialSeconds` and doubles, with jitter, up to
+    // `tokenRefreshRetryMaxSeconds`.
+    public static final long tokenRefreshRetryInitialSeconds = 30;
+    public static final long tokenRefreshRetryMaxSeconds = 15 * 60;
+
+    // Before making an API request, check the `exp` claim of the ID Token and renew the token if it
+    // has expired or is about to, instead of waiting for the API to reject it. The skew gives some
+    // leeway for clock differences between the device and the provider.
+    public static final boolean checkTokenExpiryBeforeRequest = true;
+    public static final long tokenExpirySkewSeconds = 30;
+
+    // UserInfo claims are served from memory for this long without making a request at all. After
+    // that, they're revalidated with a conditional request.
+    public static final long userInfoMaxAgeSeconds = 60;
+
+    // Parsed API responses are kept in memory, per account, for as long as their
+    // `Cache-Control: max-age` allows. This many of them are kept at most, set it to 0 to turn the
+    // cache off.
+    public static final int apiResponseCacheSize = 32;
+
+    // The bodies of API GETs made with `APIUtility.makeRequest` are kept on disk, per account, up
+    // to this many bytes in total. Set it to 0 to turn the disk cache off. Only responses with a
+    // `max-age` or a validator are stored, and `no-cache` ones are always revalidated first.
+    public static final long apiDiskCacheMaxBytes = 10 * 1024 * 1024;
+
+    // A response that went stale less than this long ago is returned straight away and
+    // revalidated in the background, so that the app has something to show on a cold start without
+    // waiting for the network. Older ones are revalidated first. Set it to 0 to always wait.
+    public static final long apiStaleWhileRevalidateSeconds = 24 * 60 * 60;
+
+    // API requests are dispatched in two lanes, so that background syncing can't hold up the
+    // requests the user is waiting on. Each lane limits how many requests run at once, in total and
+    // per host, and how many may be queued up before new ones are rejected.
+    public static final int maxInteractiveRequests = 6;
+    public static final int maxInteractiveRequestsPerHost = 4;
+    public static final int maxBackgroundRequests = 2;
+    public static final int maxBackgroundRequestsPerHost = 1;
+    public static final int maxQueuedRequests = 64;
+
+    // How many accounts are refreshed at the same time when the app comes back to the foreground.
+    // Keep this at or below `maxConnections`, so that the refreshes can share pooled connections.
+    public static final int bulkRefreshParallelism = 4;
+
+    // When refreshes fail because the Token Endpoint is down or overloaded, stop trying for a while
+    // instead of adding to its load. A failed refresh of an account isn't retried for
+    // `refreshNegativeCacheSeconds`. After `refreshFailureThreshold` failures in a row, no refreshes
+    // are made at all for a backoff that starts at `refreshInitialBackoffSeconds` and doubles, with
+    // jitter, up to `refreshMaxBackoffSeconds`.
+    public static final int refreshFailureThreshold = 3;
+    public static final long refreshInitialBackoffSeconds = 5;
+    public static final long refreshMaxBackoffSeconds = 5 * 60;
+    public static final long refreshNegativeCacheSeconds = 10;
+
+    // Keep latency histograms, retry counts, refresh outcomes and cache hit rates in memory. Dump
+    // them with `adb shell dumpsys activity com.lnikkila.oidcsample/.HomeActivity`.
+    public static final boolean recordMetrics = true;
+
 }
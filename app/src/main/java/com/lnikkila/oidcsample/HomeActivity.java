@@ -14,9 +14,18 @@ import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ProgressBar;
 
+import com.lnikkila.oidcsample.oidc.InMemoryMetrics;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.OIDCMetrics;
+import com.lnikkila.oidcsample.oidc.OIDCUtils;
+import com.lnikkila.oidcsample.oidc.RefreshFailureTracker;
 import com.lnikkila.oidcsample.oidc.authenticator.Authenticator;
+import com.lnikkila.oidcsample.oidc.authenticator.BulkTokenRefresher;
+import com.lnikkila.oidcsample.oidc.authenticator.TokenRefresher;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Map;
 
 /**
@@ -43,6 +52,44 @@ public class HomeActivity extends Activity {
         accountManager = AccountManager.get(this);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Tokens may have expired while we were in the background, renew them all at once rather
+        // than one by one as each account is used
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... args) {
+                BulkTokenRefresher.refreshAll(HomeActivity.this);
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Adds the OIDC metrics, if they're being recorded, and the state of the Token Endpoint's
+     * circuit breaker to `adb shell dumpsys activity`.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        OIDCMetrics metrics = OIDCClient.getDefault().getMetrics();
+
+        if (metrics instanceof InMemoryMetrics) {
+            writer.println(prefix + "OIDC metrics:");
+            ((InMemoryMetrics) metrics).dump(prefix + "  ", writer);
+        }
+
+        writer.println(prefix + "Token Endpoint circuits:");
+
+        for (RefreshFailureTracker.Snapshot snapshot
+                : TokenRefresher.getFailureTracker().getSnapshots()) {
+            writer.println(prefix + "  " + snapshot);
+        }
+    }
+
     /**
      * Called when the user taps the big yellow button.
      */
@@ -68,7 +115,8 @@ public class HomeActivity extends Activity {
 
             // There's just one account, let's use that
             case 1:
-                new ApiTask().execute(availableAccounts[0]);
+                new ApiTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                        availableAccounts[0]);
                 break;
 
             // Multiple accounts, let the user pick one
@@ -86,7 +134,9 @@ public class HomeActivity extends Activity {
                                 new DialogInterface.OnClickListener() {
                                     @Override
                                     public void onClick(DialogInterface dialog, int selectedAccount) {
-                                        new ApiTask().execute(availableAccounts[selectedAccount]);
+                                        new ApiTask().executeOnExecutor(
+                                                AsyncTask.THREAD_POOL_EXECUTOR,
+                                                availableAccounts[selectedAccount]);
                                     }
                                 })
                         .create()
@@ -111,7 +161,8 @@ public class HomeActivity extends Activity {
             Account account = args[0];
 
             try {
-                return APIUtility.getJson(HomeActivity.this, Config.userInfoUrl, account);
+                String userInfoUrl = OIDCUtils.getProviderConfiguration().getUserInfoEndpoint();
+                return APIUtility.getJson(HomeActivity.this, userInfoUrl, account);
             } catch (IOException e) {
                 e.printStackTrace();
                 return null;
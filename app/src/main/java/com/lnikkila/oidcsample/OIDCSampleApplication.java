@@ -0,0 +1,68 @@
+package com.lnikkila.oidcsample;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.lnikkila.oidcsample.oidc.InMemoryMetrics;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.ProviderConfiguration;
+import com.lnikkila.oidcsample.oidc.authenticator.TokenCache;
+import com.lnikkila.oidcsample.oidc.authenticator.TokenRefreshScheduler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Sets up the shared OpenID Connect client before any activity or the authenticator service
+ * starts using it, and restores the background token refresh schedule.
+ *
+ * @author Camilo Montes
+ */
+public class OIDCSampleApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        OIDCClient client = new OIDCClient.Builder()
+                .setMaxConnections(Config.maxConnections)
+                .setKeepAliveDuration(Config.keepAliveDurationMillis)
+                .setClientCredentials(Config.clientId, Config.clientSecret)
+                .setIssuer(Config.issuer)
+                .setKeySetUrl(Config.jwksUrl)
+                .setProviderConfiguration(new ProviderConfiguration(Config.issuer,
+                        Config.authorizationServerUrl, Config.tokenServerUrl, Config.userInfoUrl,
+                        Config.jwksUrl))
+                .setDiscoveryUrl(Config.discoveryUrl)
+                .setUserInfoMaxAge(Config.userInfoMaxAgeSeconds * 1000)
+                .setCallbackExecutor(new MainThreadExecutor())
+                .setCacheDirectory(getCacheDir())
+                .setMetrics(Config.recordMetrics ? new InMemoryMetrics() : null)
+                .build();
+
+        OIDCClient.setDefault(client);
+
+        // Forget the cached tokens and API responses of accounts that get removed
+        TokenCache.registerAccountListener(this);
+        APIUtility.registerAccountListener(this);
+
+        // Pick up where we left off with refreshing tokens before they expire
+        TokenRefreshScheduler.scheduleAll(this);
+    }
+
+    /**
+     * Delivers the callbacks of asynchronous OIDC calls on the main thread, so they can touch the
+     * UI directly.
+     */
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable runnable) {
+            handler.post(runnable);
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.lnikkila.oidcsample.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Asks for Brotli or gzip compressed responses and decompresses them as they're read, so that
+ * callers only ever see the plain body.
+ *
+ * OkHttp only does this by itself for gzip, and only if the caller hasn't set `Accept-Encoding`.
+ * google-http-client always sets it, so without this interceptor we'd never get Brotli and gzip
+ * would be left to google-http-client. Brotli typically makes JSON responses another 15-25 %
+ * smaller than gzip does.
+ *
+ * @author Camilo Montes
+ */
+public class CompressionInterceptor implements Interceptor {
+
+    private static final String ACCEPT_ENCODING = "br, gzip";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request().newBuilder()
+                .header("Accept-Encoding", ACCEPT_ENCODING)
+                .build();
+
+        Response response = chain.proceed(request);
+        String encoding = response.header("Content-Encoding");
+
+        if (encoding == null || response.body() == null) {
+            return response;
+        }
+
+        Source decoded;
+
+        if (encoding.equalsIgnoreCase("br")) {
+            decoded = Okio.source(new BrotliInputStream(response.body().byteStream()));
+        } else if (encoding.equalsIgnoreCase("gzip")) {
+            decoded = new GzipSource(response.body().source());
+        } else {
+            return response;
+        }
+
+        BufferedSource body = Okio.buffer(decoded);
+
+        // The length of the decoded body isn't known until it has been read
+        return response.newBuilder()
+                .removeHeader("Content-Encoding")
+                .removeHeader("Content-Length")
+                .body(ResponseBody.create(response.body().contentType(), -1, body))
+                .build();
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.lnikkila.oidcsample.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * An HTTP transport for google-http-client that sends its requests through OkHttp.
+ *
+ * Compared to HttpURLConnection, OkHttp speaks HTTP/2 to servers that support it, so that any
+ * number of concurrent requests to the same host are multiplexed over a single connection instead
+ * of each needing one of their own. Its connection pool can be sized and timed per client, rather
+ * than through global system properties. Responses are decompressed by
+ * {@link CompressionInterceptor}.
+ *
+ * @author Camilo Montes
+ */
+public class OkHttpTransport extends HttpTransport {
+
+    private final OkHttpClient client;
+
+    public OkHttpTransport(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Creates a client that prefers HTTP/2, decodes gzip and Brotli responses and keeps up to the
+     * given number of idle connections around for the given time.
+     */
+    public static OkHttpClient newClient(int maxIdleConnections, long keepAliveDurationMillis) {
+        OkHttpClient client = new OkHttpClient();
+        client.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        client.setConnectionPool(new ConnectionPool(maxIdleConnections, keepAliveDurationMillis));
+        client.interceptors().add(new CompressionInterceptor());
+        return client;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        return new OkHttpRequest(method, url);
+    }
+
+    @Override
+    public void shutdown() {
+        client.getConnectionPool().evictAll();
+    }
+
+    private class OkHttpRequest extends LowLevelHttpRequest {
+
+        private final Request.Builder request;
+        private final String method;
+
+        private int connectTimeoutMillis = client.getConnectTimeout();
+        private int readTimeoutMillis = client.getReadTimeout();
+
+        OkHttpRequest(String method, String url) {
+            this.method = method;
+            request = new Request.Builder().url(url);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            request.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(int connectTimeoutMillis, int readTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            RequestBody body = null;
+
+            if (getStreamingContent() != null) {
+                Buffer buffer = new Buffer();
+                getStreamingContent().writeTo(buffer.outputStream());
+
+                String contentType = getContentType();
+                body = RequestBody.create(contentType != null ? MediaType.parse(contentType) : null,
+                        buffer.readByteArray());
+
+                if (getContentEncoding() != null) {
+                    request.header("Content-Encoding", getContentEncoding());
+                }
+            } else if (requiresBody(method)) {
+                body = RequestBody.create(null, new byte[0]);
+            }
+
+            request.method(method, body);
+
+            OkHttpClient requestClient = client;
+
+            // The clone shares the connection pool, so it's cheap
+            if (connectTimeoutMillis != client.getConnectTimeout()
+                    || readTimeoutMillis != client.getReadTimeout()) {
+
+                requestClient = client.clone();
+                requestClient.setConnectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+                requestClient.setReadTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            return new OkHttpResponse(requestClient.newCall(request.build()).execute());
+        }
+
+    }
+
+    private static class OkHttpResponse extends LowLevelHttpResponse {
+
+        private final Response response;
+        private final Headers headers;
+
+        OkHttpResponse(Response response) {
+            this.response = response;
+            this.headers = response.headers();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return response.body().byteStream();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return response.header("Content-Encoding");
+        }
+
+        @Override
+        public long getContentLength() throws IOException {
+            return response.body().contentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return response.header("Content-Type");
+        }
+
+        @Override
+        public String getStatusLine() {
+            return response.protocol() + " " + response.code() + " " + response.message();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.code();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return response.message();
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headers.size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return headers.name(index);
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return headers.value(index);
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            response.body().close();
+        }
+
+    }
+
+    private static boolean requiresBody(String method) {
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+    }
+
+}
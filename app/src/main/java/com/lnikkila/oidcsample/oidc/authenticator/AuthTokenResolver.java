@@ -0,0 +1,105 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import com.google.api.client.auth.oauth2.TokenResponseException;
+
+import java.io.IOException;
+
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+
+/**
+ * Decides how `Authenticator.getAuthToken` gets hold of a token: use the stored one, refresh the
+ * set with the Refresh Token, or have the user authorise us again.
+ *
+ * Kept apart from the AccountManager plumbing so that the decisions can be exercised against stubs,
+ * e.g. in the benchmarks.
+ *
+ * @author Camilo Montes
+ */
+public class AuthTokenResolver {
+
+    public enum Outcome {
+        /** The stored token was still valid. */
+        STORED,
+        /** The tokens were refreshed and the new token is returned. */
+        REFRESHED,
+        /** Refreshing failed for a reason other than the Refresh Token being rejected. */
+        REFRESH_FAILED,
+        /** There's no usable Refresh Token, so the user has to authorise us again. */
+        NEEDS_AUTHORIZATION
+    }
+
+    /**
+     * Where the tokens come from.
+     */
+    public interface TokenSource {
+
+        /**
+         * Returns the stored token of the given type, or null if there isn't one or it has been
+         * invalidated.
+         */
+        String peekToken(String tokenType);
+
+        String peekRefreshToken();
+
+        /**
+         * Exchanges the Refresh Token for a new set of tokens and stores them.
+         */
+        void refresh() throws IOException;
+
+    }
+
+    public static class Result {
+
+        public final Outcome outcome;
+
+        /** The token, or null if there isn't one. */
+        public final String token;
+
+        /** What went wrong with the refresh, if anything. */
+        public final IOException error;
+
+        Result(Outcome outcome, String token, IOException error) {
+            this.outcome = outcome;
+            this.token = token;
+            this.error = error;
+        }
+
+    }
+
+    private AuthTokenResolver() {}
+
+    public static Result resolve(TokenSource source, String tokenType) {
+        String token = source.peekToken(tokenType);
+
+        if (!isEmpty(token)) {
+            return new Result(Outcome.STORED, token, null);
+        }
+
+        // If we don't have one or the token has been invalidated, we need to check if we have a
+        // Refresh Token
+        if (isEmpty(source.peekRefreshToken())) {
+            return new Result(Outcome.NEEDS_AUTHORIZATION, null, null);
+        }
+
+        try {
+            source.refresh();
+        } catch (TokenResponseException e) {
+            if (e.getStatusCode() == HTTP_BAD_REQUEST && e.getContent() != null
+                    && e.getContent().contains("invalid_grant")) {
+                // The Refresh Token has expired or been revoked
+                return new Result(Outcome.NEEDS_AUTHORIZATION, null, e);
+            }
+
+            return new Result(Outcome.REFRESH_FAILED, source.peekToken(tokenType), e);
+        } catch (IOException e) {
+            return new Result(Outcome.REFRESH_FAILED, source.peekToken(tokenType), e);
+        }
+
+        return new Result(Outcome.REFRESHED, source.peekToken(tokenType), null);
+    }
+
+    private static boolean isEmpty(String string) {
+        return string == null || string.length() == 0;
+    }
+
+}
@@ -8,23 +8,20 @@ import android.accounts.NetworkErrorException;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.api.client.auth.oauth2.TokenResponseException;
-import com.google.api.client.auth.openidconnect.IdTokenResponse;
 import com.lnikkila.oidcsample.Config;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
 import com.lnikkila.oidcsample.oidc.OIDCUtils;
 
 import java.io.IOException;
 
-import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
-
 /**
  * Used by Android's AccountManager to manage our account information.
  *
  * The three OpenID tokens (not counting the single-use Authorization Token that is discarded) are
- * stored as what Android calls "auth tokens". They all have different token types:
+ * stored together as one record by `TokenStore`, and handed out as what Android calls "auth
+ * tokens". They all have different token types:
  *
  * ID Token:      TOKEN_TYPE_ID
  * Access Token:  TOKEN_TYPE_ACCESS  (replaceable by the ID Token, so we're not really using this)
@@ -86,20 +83,18 @@ public class Authenticator extends AbstractAccountAuthenticator {
         Log.d(TAG, String.format("getAuthToken called with account.type '%s', account.name '%s', " +
                 "authTokenType '%s'.", account.type, account.name, authTokenType));
 
-        // Try to retrieve a stored token
-        String token = accountManager.peekAuthToken(account, authTokenType);
+        AuthTokenResolver.Result resolved = AuthTokenResolver.resolve(
+                new AccountTokenSource(account), authTokenType);
 
-        if (TextUtils.isEmpty(token)) {
-            // If we don't have one or the token has been invalidated, we need to check if we have
-            // a refresh token
-            Log.d(TAG, "Token empty, checking for refresh token.");
-            String refreshToken = accountManager.peekAuthToken(account, TOKEN_TYPE_REFRESH);
+        OIDCClient.getDefault().getMetrics().recordRefreshOutcome(resolved.outcome.name());
 
-            if (TextUtils.isEmpty(refreshToken)) {
-                // If we don't even have a refresh token, we need to launch an intent for the user
-                // to get us a new set of tokens by authorising us again.
+        String token = resolved.token;
 
-                Log.d(TAG, "Refresh token empty, launching intent for renewing authorisation.");
+        switch (resolved.outcome) {
+            case NEEDS_AUTHORIZATION: {
+                // If we don't even have a refresh token, or it has expired, we need to launch an
+                // intent for the user to get us a new set of tokens by authorising us again.
+                Log.d(TAG, "No usable refresh token, launching intent for renewing authorisation.");
 
                 Bundle result = new Bundle();
                 Intent intent = createIntentForAuthorization(response);
@@ -109,54 +104,16 @@ public class Authenticator extends AbstractAccountAuthenticator {
 
                 result.putParcelable(AccountManager.KEY_INTENT, intent);
                 return result;
-            } else {
-                // Got a refresh token, let's use it to get a fresh set of tokens
-                Log.d(TAG, "Got refresh token, getting new tokens.");
-
-                IdTokenResponse tokenResponse;
-
-                try {
-                    tokenResponse = OIDCUtils.refreshTokens(Config.tokenServerUrl,
-                                                            Config.clientId,
-                                                            Config.clientSecret,
-                                                            Config.scopes,
-                                                            refreshToken);
-
-                    Log.d(TAG, "Got new tokens.");
-
-                    accountManager.setAuthToken(account, TOKEN_TYPE_ID, tokenResponse.getIdToken());
-                    accountManager.setAuthToken(account, TOKEN_TYPE_ACCESS, tokenResponse.getAccessToken());
-                    accountManager.setAuthToken(account, TOKEN_TYPE_REFRESH, tokenResponse.getRefreshToken());
-                }catch (TokenResponseException e) {
-                    if(e.getStatusCode() == HTTP_BAD_REQUEST && e.getContent().contains("invalid_grant")) {
-                        // If the refresh token has expired, we need to launch an intent for the user
-                        // to get us a new set of tokens by authorising us again.
-
-                        Log.d(TAG, "Refresh token expired, launching intent for renewing authorisation.");
-
-                        Bundle result = new Bundle();
-                        Intent intent = createIntentForAuthorization(response);
-
-                        // Provide the account that we need re-authorised
-                        intent.putExtra(AuthenticatorActivity.KEY_ACCOUNT_OBJECT, account);
-
-                        result.putParcelable(AccountManager.KEY_INTENT, intent);
-                        return result;
-                    }
-                    else {
-                        // There's not much we can do if we get here
-                        Log.e(TAG, "Couldn't get new tokens.", e);
-                    }
-                }
-                catch (IOException e) {
-                    // There's not much we can do if we get here
-                    Log.e(TAG, "Couldn't get new tokens.", e);
-
-                }
-
-                // Now, let's return the token that was requested
-                token = accountManager.peekAuthToken(account, authTokenType);
             }
+            case REFRESHED:
+                Log.d(TAG, "Got new tokens.");
+                break;
+            case REFRESH_FAILED:
+                // There's not much we can do if we get here
+                Log.e(TAG, "Couldn't get new tokens.", resolved.error);
+                break;
+            default:
+                break;
         }
 
         Log.d(TAG, String.format("Returning token '%s' of type '%s'.", token, authTokenType));
@@ -177,24 +134,26 @@ public class Authenticator extends AbstractAccountAuthenticator {
         Intent intent = new Intent(context, AuthenticatorActivity.class);
 
         // Generate a new authorisation URL
+        String authorizationEndpoint =
+                OIDCUtils.getProviderConfiguration().getAuthorizationEndpoint();
         String authUrl;
 
         switch (Config.flowType) {
             case AuthorizationCode :
-                authUrl = OIDCUtils.codeFlowAuthenticationUrl(Config.authorizationServerUrl,
+                authUrl = OIDCUtils.codeFlowAuthenticationUrl(authorizationEndpoint,
                         Config.clientId, Config.redirectUrl, Config.scopes);
                 break;
             case Implicit:
-                authUrl = OIDCUtils.implicitFlowAuthenticationUrl(Config.authorizationServerUrl,
+                authUrl = OIDCUtils.implicitFlowAuthenticationUrl(authorizationEndpoint,
                         Config.clientId, Config.redirectUrl, Config.scopes);
                 break;
             case Hybrid:
-                authUrl = OIDCUtils.hybridFlowAuthenticationUrl(Config.authorizationServerUrl,
+                authUrl = OIDCUtils.hybridFlowAuthenticationUrl(authorizationEndpoint,
                         Config.clientId, Config.redirectUrl, Config.scopes);
                 break;
             default:
                 Log.d(TAG, "Requesting unsupported flowType! Using CodeFlow instead");
-                authUrl = OIDCUtils.codeFlowAuthenticationUrl(Config.authorizationServerUrl,
+                authUrl = OIDCUtils.codeFlowAuthenticationUrl(authorizationEndpoint,
                         Config.clientId, Config.redirectUrl, Config.scopes);
                 break;
         }
@@ -236,4 +195,34 @@ public class Authenticator extends AbstractAccountAuthenticator {
         return null;
     }
 
+    /**
+     * Reads the account's tokens through the in-memory cache and refreshes them with a single
+     * flight per account.
+     */
+    private class AccountTokenSource implements AuthTokenResolver.TokenSource {
+
+        private final Account account;
+
+        AccountTokenSource(Account account) {
+            this.account = account;
+        }
+
+        @Override
+        public String peekToken(String tokenType) {
+            return TokenCache.peekAuthToken(accountManager, account, tokenType);
+        }
+
+        @Override
+        public String peekRefreshToken() {
+            return TokenCache.peekAuthToken(accountManager, account, TOKEN_TYPE_REFRESH);
+        }
+
+        @Override
+        public void refresh() throws IOException {
+            // Concurrent callers for the same account share a single refresh
+            TokenRefresher.refresh(accountManager, account);
+        }
+
+    }
+
 }
@@ -3,22 +3,34 @@ package com.lnikkila.oidcsample.oidc.authenticator;
 import android.accounts.Account;
 import android.accounts.AccountAuthenticatorActivity;
 import android.accounts.AccountManager;
+import android.accounts.AccountManagerCallback;
+import android.accounts.AccountManagerFuture;
+import android.accounts.AuthenticatorException;
+import android.accounts.OperationCanceledException;
+import android.annotation.TargetApi;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
+import com.google.api.client.auth.openidconnect.IdToken;
 import com.google.api.client.auth.openidconnect.IdTokenResponse;
-import com.google.api.client.json.gson.GsonFactory;
 import com.lnikkila.oidcsample.Config;
+import com.lnikkila.oidcsample.oidc.ConnectionWarmer;
+import com.lnikkila.oidcsample.oidc.OIDCCallback;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
 import com.lnikkila.oidcsample.oidc.OIDCUtils;
+import com.lnikkila.oidcsample.oidc.RedirectMatcher;
 import com.lnikkila.oidcsample.R;
 
 import java.io.IOException;
@@ -43,7 +55,7 @@ import java.util.Set;
  */
 public class AuthenticatorActivity extends AccountAuthenticatorActivity {
 
-    private final String TAG = getClass().getSimpleName();
+    private static final String TAG = AuthenticatorActivity.class.getSimpleName();
 
     public static final String KEY_AUTH_URL = "com.lnikkila.oidcsample.KEY_AUTH_URL";
     public static final String KEY_IS_NEW_ACCOUNT = "com.lnikkila.oidcsample.KEY_IS_NEW_ACCOUNT";
@@ -53,6 +65,17 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
     private Account account;
     private boolean isNewAccount;
 
+    private ConnectionWarmer connectionWarmer;
+
+    private final RedirectMatcher redirectMatcher = new RedirectMatcher(Config.redirectUrl);
+    private boolean isRedirectHandled;
+
+    // For measuring how long it takes from the redirect to handing the authorization response to
+    // its task, and from there to having the tokens
+    private long redirectReceivedAt;
+    private long responseDeliveredAt;
+    private String redirectHook;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -75,6 +98,11 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         Log.d(TAG, String.format("Initiated activity for getting authorisation with URL '%s'.",
                 authUrl));
 
+        // Get the connection for the code exchange ready while the user is logging in
+        connectionWarmer = new ConnectionWarmer(OIDCClient.getDefault(),
+                Config.flowType != Config.Flows.Implicit,
+                Config.connectionWarmUpIntervalSeconds * 1000);
+
         // Initialise the WebView
         WebView webView = (WebView) findViewById(R.id.WebView);
 
@@ -84,92 +112,159 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         webView.loadUrl(authUrl);
 
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, String urlString) {
+                // Catching the redirect here means that the WebView never starts loading it
+                return handleRedirect(view, urlString, "shouldOverrideUrlLoading");
+            }
+
             @Override
             public void onPageStarted(WebView view, String urlString, Bitmap favicon) {
                 super.onPageStarted(view, urlString, favicon);
 
-                Uri url = Uri.parse(urlString);
-                Set<String> parameterNames = url.getQueryParameterNames();
-                String extractedFragment = url.getEncodedFragment();
-
-                if (parameterNames.contains("error")) {
+                // Not every navigation goes through shouldOverrideUrlLoading, e.g. some redirects
+                // after a POST on older WebViews, so this is the fallback
+                if (handleRedirect(view, urlString, "onPageStarted")) {
                     view.stopLoading();
+                }
+            }
+        });
+    }
 
-                    // In case of an error, the `error` parameter contains an ASCII identifier, e.g.
-                    // "temporarily_unavailable" and the `error_description` *may* contain a
-                    // human-readable description of the error.
-                    //
-                    // For a list of the error identifiers, see
-                    // http://tools.ietf.org/html/rfc6749#section-4.1.2.1
-
-                    String error = url.getQueryParameter("error");
-                    String errorDescription = url.getQueryParameter("error_description");
-
-                    // If the user declines to authorise the app, there's no need to show an error
-                    // message.
-                    if (!error.equals("access_denied")) {
-                        showErrorDialog(String.format("Error code: %s\n\n%s", error,
-                                errorDescription));
-                    }
-                } else if(urlString.startsWith(Config.redirectUrl)){
-                    // We won't need to keep loading anymore. This also prevents errors when using
-                    // redirect URLs that don't have real protocols (like app://) that are just
-                    // used for identification purposes in native apps.
-                    view.stopLoading();
+    @Override
+    protected void onStart() {
+        super.onStart();
+        connectionWarmer.start();
+    }
 
-                    switch (Config.flowType) {
-                        case Implicit: {
-                            if (!TextUtils.isEmpty(extractedFragment)) {
-                                CreateIdTokenFromFragmentPartTask task = new CreateIdTokenFromFragmentPartTask();
-                                task.execute(extractedFragment);
-
-                            } else {
-                                Log.e(TAG, String.format(
-                                        "urlString '%1$s' doesn't contain fragment part; can't extract tokens",
-                                        urlString));
-                            }
-                            break;
-                        }
-                        case Hybrid: {
-                            if (!TextUtils.isEmpty(extractedFragment)) {
-                                RequestIdTokenFromFragmentPartTask task = new RequestIdTokenFromFragmentPartTask();
-                                task.execute(extractedFragment);
-
-                            } else {
-                                Log.e(TAG, String.format(
-                                        "urlString '%1$s' doesn't contain fragment part; can't request tokens",
-                                        urlString));
-                            }
-                            break;
-                        }
-                        case AuthorizationCode:
-                        default: {
-                            // The URL will contain a `code` parameter when the user has been authenticated
-                            if (parameterNames.contains("code")) {
-                                String authToken = url.getQueryParameter("code");
-
-                                // Request the ID token
-                                RequestIdTokenTask task = new RequestIdTokenTask();
-                                task.execute(authToken);
-                            }
-                            else {
-                                Log.e(TAG, String.format(
-                                        "urlString '%1$s' doesn't contain code param; can't extract authCode",
-                                        urlString));
-                            }
-                            break;
-                        }
-                    }
+    @Override
+    protected void onStop() {
+        super.onStop();
+        connectionWarmer.stop();
+    }
+
+    /**
+     * Handles the navigation if it's to our Redirect URI. Returns whether it was, in which case
+     * the WebView shouldn't load it. Intermediate URLs of the provider aren't parsed at all.
+     */
+    private boolean handleRedirect(WebView view, String urlString, String hook) {
+        if (!redirectMatcher.matches(urlString)) {
+            // Should be an intermediate url, load it and keep going
+            return false;
+        }
+
+        // Both hooks may see the same redirect
+        if (isRedirectHandled) {
+            return true;
+        }
+
+        isRedirectHandled = true;
+        redirectReceivedAt = SystemClock.elapsedRealtime();
+        redirectHook = hook;
+
+        Log.d(TAG, String.format("Redirect caught in %s.", hook));
+
+        // The connection is as warm as it gets, don't compete with the exchange for it
+        connectionWarmer.stop();
+
+        Uri url = Uri.parse(urlString);
+        Set<String> parameterNames = url.getQueryParameterNames();
+        String extractedFragment = url.getEncodedFragment();
+
+        if (parameterNames.contains("error")) {
+            // In case of an error, the `error` parameter contains an ASCII identifier, e.g.
+            // "temporarily_unavailable" and the `error_description` *may* contain a
+            // human-readable description of the error.
+            //
+            // For a list of the error identifiers, see
+            // http://tools.ietf.org/html/rfc6749#section-4.1.2.1
+
+            String error = url.getQueryParameter("error");
+            String errorDescription = url.getQueryParameter("error_description");
+
+            // If the user declines to authorise the app, there's no need to show an error
+            // message.
+            if (!error.equals("access_denied")) {
+                showErrorDialog(String.format("Error code: %s\n\n%s", error,
+                        errorDescription));
+            }
+
+            return true;
+        }
+
+        switch (Config.flowType) {
+            case Implicit: {
+                if (!TextUtils.isEmpty(extractedFragment)) {
+                    CreateIdTokenFromFragmentPartTask task = new CreateIdTokenFromFragmentPartTask();
+                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, extractedFragment);
+
+                } else {
+                    Log.e(TAG, String.format(
+                            "urlString '%1$s' doesn't contain fragment part; can't extract tokens",
+                            urlString));
                 }
-                // else : should be an intermediate url, load it and keep going
+                break;
             }
-        });
+            case Hybrid: {
+                if (!TextUtils.isEmpty(extractedFragment)) {
+                    RequestIdTokenFromFragmentPartTask task = new RequestIdTokenFromFragmentPartTask();
+                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, extractedFragment);
+
+                } else {
+                    Log.e(TAG, String.format(
+                            "urlString '%1$s' doesn't contain fragment part; can't request tokens",
+                            urlString));
+                }
+                break;
+            }
+            case AuthorizationCode:
+            default: {
+                // The URL will contain a `code` parameter when the user has been authenticated
+                if (parameterNames.contains("code")) {
+                    String authToken = url.getQueryParameter("code");
+
+                    // Request the ID token
+                    RequestIdTokenTask task = new RequestIdTokenTask();
+                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, authToken);
+                }
+                else {
+                    Log.e(TAG, String.format(
+                            "urlString '%1$s' doesn't contain code param; can't extract authCode",
+                            urlString));
+                }
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Logs how long it took from catching the redirect to the task starting on the authorization
+     * response, i.e. the delivery of the code or tokens themselves. Called first thing in the task.
+     */
+    private void logDeliveryLatency() {
+        responseDeliveredAt = SystemClock.elapsedRealtime();
+
+        Log.d(TAG, String.format("Authorization response delivered %d ms after the redirect " +
+                "was caught in %s.", responseDeliveredAt - redirectReceivedAt, redirectHook));
+    }
+
+    /**
+     * Logs how long it took from the delivery of the authorization response to having the tokens
+     * stored, which is mostly the code exchange round trip.
+     */
+    private void logExchangeLatency() {
+        Log.d(TAG, String.format("Tokens stored %d ms after the authorization response was " +
+                "delivered.", SystemClock.elapsedRealtime() - responseDeliveredAt));
     }
 
     private class CreateIdTokenFromFragmentPartTask extends AsyncTask<String, Void, Boolean> {
 
         @Override
         protected Boolean doInBackground(String... args) {
+            logDeliveryLatency();
+
             String fragmentPart = args[0];
 
             Uri tokenExtrationUrl = new Uri.Builder().encodedQuery(fragmentPart).build();
@@ -193,7 +288,7 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
                 response.setTokenType(tokenType);
                 response.setExpiresInSeconds(expiresIn);
                 response.setScope(scope);
-                response.setFactory(new GsonFactory());
+                response.setFactory(OIDCClient.getDefault().getJsonFactory());
 
                 if (isNewAccount) {
                     createAccount(response);
@@ -208,6 +303,8 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         @Override
         protected void onPostExecute(Boolean wasSuccess) {
             if (wasSuccess) {
+                logExchangeLatency();
+
                 // The account manager still wants the following information back
                 Intent intent = new Intent();
 
@@ -229,6 +326,8 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
     private class RequestIdTokenFromFragmentPartTask extends AsyncTask<String, Void, Boolean> {
         @Override
         protected Boolean doInBackground(String... args) {
+            logDeliveryLatency();
+
             String fragmentPart = args[0];
 
             Uri tokenExtrationUrl = new Uri.Builder().encodedQuery(fragmentPart).build();
@@ -244,7 +343,9 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
                 Log.i(TAG, "Requesting access_token with AuthCode : " + authCode);
 
                 try {
-                    response = OIDCUtils.requestTokens(Config.tokenServerUrl,
+                    String tokenEndpoint = OIDCUtils.getProviderConfiguration().getTokenEndpoint();
+
+                    response = OIDCUtils.requestTokens(tokenEndpoint,
                             Config.redirectUrl,
                             Config.clientId,
                             Config.clientSecret,
@@ -268,6 +369,8 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         @Override
         protected void onPostExecute(Boolean wasSuccess) {
             if (wasSuccess) {
+                logExchangeLatency();
+
                 // The account manager still wants the following information back
                 Intent intent = new Intent();
 
@@ -289,13 +392,17 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
     private class RequestIdTokenTask extends AsyncTask<String, Void, Boolean> {
         @Override
         protected Boolean doInBackground(String... args) {
+            logDeliveryLatency();
+
             String authToken = args[0];
             IdTokenResponse response;
 
             Log.d(TAG, "Requesting ID token.");
 
             try {
-                response = OIDCUtils.requestTokens(Config.tokenServerUrl,
+                String tokenEndpoint = OIDCUtils.getProviderConfiguration().getTokenEndpoint();
+
+                response = OIDCUtils.requestTokens(tokenEndpoint,
                         Config.redirectUrl,
                         Config.clientId,
                         Config.clientSecret,
@@ -318,6 +425,8 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         @Override
         protected void onPostExecute(Boolean wasSuccess) {
             if (wasSuccess) {
+                logExchangeLatency();
+
                 // The account manager still wants the following information back
                 Intent intent = new Intent();
 
@@ -353,26 +462,33 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         // Use the app name as a fallback if the other information isn't available for some reason.
         String accountName = getString(R.string.app_name);
         String accountId = null;
+        String claimedName = null;
 
         try {
-            accountId = response.parseIdToken().getPayload().getSubject();
-        } catch (IOException e) {
+            IdToken.Payload claims = OIDCUtils.parseIdToken(response.getIdToken()).getPayload();
+
+            accountId = claims.getSubject();
+            claimedName = getDisplayName(claims);
+        } catch (IOException | IllegalArgumentException e) {
             Log.e(TAG, "Could not get ID Token subject.");
             e.printStackTrace();
         }
 
-        // Get the user information so we can grab the `preferred_username`
-        Map userInfo = Collections.emptyMap();
+        // Providers often put the username in the ID Token already, in which case there's no need
+        // to ask the UserInfo endpoint for it
+        boolean needsUserInfo = claimedName == null;
 
-        try {
-            userInfo = OIDCUtils.getUserInfo(Config.userInfoUrl, response.getIdToken());
-        } catch (IOException e) {
-            Log.e(TAG, "Could not get UserInfo.");
-            e.printStackTrace();
-        }
+        if (claimedName != null) {
+            accountName = claimedName;
+        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            // Accounts can't be renamed before Lollipop, so we have to wait for the name here
+            String userInfoName = getDisplayName(getUserInfo(response.getIdToken()));
+
+            if (userInfoName != null) {
+                accountName = userInfoName;
+            }
 
-        if (userInfo.containsKey("preferred_username")) {
-            accountName = (String) userInfo.get("preferred_username");
+            needsUserInfo = false;
         }
 
         account = new Account(String.format("%s (%s)", accountName, accountId), accountType);
@@ -382,12 +498,110 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity {
         setTokens(response);
 
         Log.d(TAG, "Account created.");
+
+        if (needsUserInfo) {
+            renameFromUserInfo(getApplicationContext(), account, accountId, response.getIdToken());
+        }
+    }
+
+    /**
+     * Fetches the user's name from the UserInfo endpoint once the login has already finished, and
+     * renames the account if we got one.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void renameFromUserInfo(Context context, final Account account,
+                                           final String accountId, final String idToken) {
+
+        final AccountManager accountManager = AccountManager.get(context);
+
+        // The provider configuration may need the network the very first time
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... args) {
+                return OIDCUtils.getProviderConfiguration().getUserInfoEndpoint();
+            }
+
+            @Override
+            protected void onPostExecute(String userInfoEndpoint) {
+                OIDCUtils.getUserInfoAsync(userInfoEndpoint, idToken, new OIDCCallback<Map>() {
+                    @Override
+                    public void onSuccess(Map userInfo) {
+                        String userInfoName = getDisplayName(userInfo);
+
+                        if (userInfoName == null) {
+                            return;
+                        }
+
+                        String newName = String.format("%s (%s)", userInfoName, accountId);
+
+                        accountManager.renameAccount(account, newName,
+                                new AccountManagerCallback<Account>() {
+                                    @Override
+                                    public void run(AccountManagerFuture<Account> future) {
+                                        onAccountRenamed(accountManager, account, future);
+                                    }
+                                }, null);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.e(TAG, "Could not get UserInfo.", e);
+                    }
+                });
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Moves the scheduled refresh over to the renamed account.
+     */
+    private static void onAccountRenamed(AccountManager accountManager, Account oldAccount,
+                                         AccountManagerFuture<Account> future) {
+        try {
+            Account renamed = future.getResult();
+
+            TokenRefreshScheduler.cancel(oldAccount);
+            TokenCache.invalidate(oldAccount);
+            TokenRefreshScheduler.schedule(accountManager, renamed,
+                    TokenStore.getExpiresAt(accountManager, renamed));
+
+            Log.d(TAG, String.format("Account renamed to '%s'.", renamed.name));
+        } catch (OperationCanceledException | AuthenticatorException | IOException e) {
+            Log.e(TAG, "Could not rename account.", e);
+        }
+    }
+
+    private static Map getUserInfo(String idToken) {
+        try {
+            String userInfoEndpoint = OIDCUtils.getProviderConfiguration().getUserInfoEndpoint();
+            return OIDCUtils.getUserInfo(userInfoEndpoint, idToken);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not get UserInfo.");
+            e.printStackTrace();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Picks a human-readable name out of the claims, or null if there isn't one.
+     */
+    private static String getDisplayName(Map claims) {
+        for (String claim : new String[] { "preferred_username", "name" }) {
+            Object value = claims.get(claim);
+
+            if (value instanceof String && !TextUtils.isEmpty((String) value)) {
+                return (String) value;
+            }
+        }
+
+        return null;
     }
 
     private void setTokens(IdTokenResponse response) {
-        accountManager.setAuthToken(account, Authenticator.TOKEN_TYPE_ID, response.getIdToken());
-        accountManager.setAuthToken(account, Authenticator.TOKEN_TYPE_ACCESS, response.getAccessToken());
-        accountManager.setAuthToken(account, Authenticator.TOKEN_TYPE_REFRESH, response.getRefreshToken());
+        long expiresAt = TokenStore.setTokens(accountManager, account, response);
+
+        // Renew the tokens in the background before they expire
+        TokenRefreshScheduler.schedule(accountManager, account, expiresAt);
     }
 
     /**
@@ -0,0 +1,276 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.lnikkila.oidcsample.Config;
+import com.lnikkila.oidcsample.R;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the tokens of many accounts at once, e.g. when the app comes back from the background
+ * and every account's tokens have expired in the meantime.
+ *
+ * Refreshing one account after another takes as many round trips to the provider as there are
+ * accounts. Instead, up to `Config.bulkRefreshParallelism` accounts are refreshed at the same time.
+ * They all go through the shared client, so they reuse its pooled connections, and through
+ * {@link TokenRefresher}, so an account that's already being refreshed isn't refreshed twice.
+ *
+ * @author Camilo Montes
+ */
+public class BulkTokenRefresher {
+
+    private static final String TAG = BulkTokenRefresher.class.getSimpleName();
+
+    public enum Outcome {
+        /** The tokens were refreshed and stored. */
+        REFRESHED,
+        /** The tokens weren't about to expire, so they were left alone. */
+        STILL_VALID,
+        /** The account doesn't have a Refresh Token, so the user has to log in again. */
+        NO_REFRESH_TOKEN,
+        /** The refresh failed, see {@link Result#error}. */
+        FAILED
+    }
+
+    public static class Result {
+
+        public final Account account;
+        public final Outcome outcome;
+
+        /** When the account's tokens expire now, in milliseconds, or 0 if we don't know. */
+        public final long expiresAt;
+
+        /**
+         * What went wrong, if the refresh failed. Usually an `IOException`, but e.g. a response
+         * that can't be parsed fails with a `RuntimeException`.
+         */
+        public final Exception error;
+
+        /** How long this account took, including waiting for a refresh already in flight. */
+        public final long elapsedMillis;
+
+        Result(Account account, Outcome outcome, long expiresAt, Exception error,
+               long elapsedMillis) {
+
+            this.account = account;
+            this.outcome = outcome;
+            this.expiresAt = expiresAt;
+            this.error = error;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+    }
+
+    public static class Summary {
+
+        /**
+         * One result per account, in the order the accounts were given. Cut short if the thread
+         * was interrupted.
+         */
+        public final List<Result> results;
+
+        /** How long the whole bulk refresh took. */
+        public final long elapsedMillis;
+
+        Summary(List<Result> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getCount(Outcome outcome) {
+            int count = 0;
+
+            for (Result result : results) {
+                if (result.outcome == outcome) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        /**
+         * How long the accounts took added up, i.e. roughly how long refreshing them one after
+         * another would have taken.
+         */
+        public long getTotalAccountMillis() {
+            long total = 0;
+
+            for (Result result : results) {
+                total += result.elapsedMillis;
+            }
+
+            return total;
+        }
+
+        /**
+         * The slowest account, which is what the wall-clock time can't get below.
+         */
+        public long getMaxAccountMillis() {
+            long max = 0;
+
+            for (Result result : results) {
+                max = Math.max(max, result.elapsedMillis);
+            }
+
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d accounts in %d ms (%d ms one by one, slowest %d ms): " +
+                    "%d refreshed, %d still valid, %d without refresh token, %d failed",
+                    results.size(), elapsedMillis, getTotalAccountMillis(), getMaxAccountMillis(),
+                    getCount(Outcome.REFRESHED), getCount(Outcome.STILL_VALID),
+                    getCount(Outcome.NO_REFRESH_TOKEN), getCount(Outcome.FAILED));
+        }
+
+    }
+
+    // Accounts whose tokens don't tell when they expire and that we've already refreshed once, so
+    // that they aren't refreshed again every time the app comes back
+    private static final Set<Account> refreshedWithUnknownExpiry =
+            Collections.newSetFromMap(new ConcurrentHashMap<Account, Boolean>());
+
+    private BulkTokenRefresher() {}
+
+    /**
+     * Refreshes the tokens of all of our accounts that are about to expire.
+     *
+     * Needs to be run on a separate thread.
+     */
+    public static Summary refreshAll(Context context) {
+        AccountManager accountManager = AccountManager.get(context);
+        Account[] accounts = accountManager.getAccountsByType(
+                context.getString(R.string.ACCOUNT_TYPE));
+
+        return refresh(context, Arrays.asList(accounts), false);
+    }
+
+    /**
+     * Refreshes the tokens of the given accounts.
+     *
+     * Needs to be run on a separate thread.
+     *
+     * @param force refresh even the accounts whose tokens aren't about to expire
+     */
+    public static Summary refresh(Context context, Collection<Account> accounts,
+                                  final boolean force) {
+
+        final AccountManager accountManager = AccountManager.get(context);
+        long startTime = System.nanoTime();
+
+        List<Result> results = new ArrayList<>();
+
+        if (accounts.isEmpty()) {
+            return new Summary(results, 0);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(Config.bulkRefreshParallelism, accounts.size()), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+
+            for (final Account account : accounts) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return refresh(accountManager, account, force);
+                    }
+                }));
+            }
+
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        } catch (ExecutionException e) {
+            // refresh() doesn't throw anything checked, so this is a bug
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        Summary summary = new Summary(results,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        Log.d(TAG, "Bulk refresh: " + summary);
+        return summary;
+    }
+
+    private static Result refresh(AccountManager accountManager, Account account, boolean force) {
+        long startTime = System.nanoTime();
+        long expiresAt = TokenStore.getExpiresAt(accountManager, account);
+
+        boolean isStillValid = expiresAt > 0
+                ? expiresAt > System.currentTimeMillis() + Config.tokenRefreshLeadTimeSeconds * 1000
+                // Tokens that we don't know the expiry time of are refreshed once to be on the
+                // safe side, after that we wait for a request to be rejected
+                : refreshedWithUnknownExpiry.contains(account);
+
+        if (!force && isStillValid) {
+            return new Result(account, Outcome.STILL_VALID, expiresAt, null,
+                    elapsedMillisSince(startTime));
+        }
+
+        try {
+            IdTokenResponse response = TokenRefresher.refresh(accountManager, account);
+
+            if (response == null) {
+                return new Result(account, Outcome.NO_REFRESH_TOKEN, expiresAt, null,
+                        elapsedMillisSince(startTime));
+            }
+
+            long newExpiresAt = TokenStore.getExpiresAt(accountManager, account);
+
+            if (newExpiresAt > 0) {
+                refreshedWithUnknownExpiry.remove(account);
+            } else {
+                refreshedWithUnknownExpiry.add(account);
+            }
+
+            return new Result(account, Outcome.REFRESHED, newExpiresAt, null,
+                    elapsedMillisSince(startTime));
+        } catch (IOException | RuntimeException e) {
+            // Including e.g. an ID Token that can't be parsed, which mustn't take the other
+            // accounts down with it
+            Log.w(TAG, String.format("Refreshing account '%s' failed.", account.name), e);
+            return new Result(account, Outcome.FAILED, expiresAt, e,
+                    elapsedMillisSince(startTime));
+        }
+    }
+
+    private static long elapsedMillisSince(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.OIDCMetrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the tokens of our accounts in memory, so that reading them doesn't take a binder call into
+ * the system's account service every time.
+ *
+ * The token set in `TokenStore` stays the source of truth. Tokens that it stores are put here as
+ * well, and tokens that it invalidates are dropped. Entries for accounts that have been removed are
+ * dropped once `registerAccountListener` has been called.
+ *
+ * Reads don't take any locks. A token read from the token set is only cached if nothing was stored
+ * or invalidated while it was being read, and it never replaces a cached token, so a slow read
+ * can't bring back a token that has been invalidated or replaced.
+ *
+ * @author Camilo Montes
+ */
+public class TokenCache {
+
+    private static final ConcurrentMap<Key, String> tokens = new ConcurrentHashMap<>();
+
+    // Bumped on every store and invalidation, so that reads that raced with one can tell
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private static OnAccountsUpdateListener accountListener;
+
+    private TokenCache() {}
+
+    /**
+     * Returns the cached token of the given type, or null if it has to be read from the
+     * account.
+     */
+    public static String get(Account account, String tokenType) {
+        String token = tokens.get(new Key(account, tokenType));
+
+        if (token != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+
+        OIDCClient.getDefault().getMetrics().recordCacheLookup(OIDCMetrics.CACHE_AUTH_TOKEN,
+                token != null);
+
+        return token;
+    }
+
+    /**
+     * Returns the token of the given type, reading it from the account's token set if it isn't
+     * cached.
+     */
+    public static String peekAuthToken(AccountManager accountManager, Account account,
+                                       String tokenType) {
+
+        String token = get(account, tokenType);
+
+        if (token != null) {
+            return token;
+        }
+
+        long seenGeneration = generation.get();
+        token = TokenStore.getToken(accountManager, account, tokenType);
+
+        if (TextUtils.isEmpty(token) || generation.get() != seenGeneration) {
+            return token;
+        }
+
+        Key key = new Key(account, tokenType);
+
+        // Something may have been stored or invalidated since the check above, in which case our
+        // copy may be stale and has to go unless it was replaced already
+        if (tokens.putIfAbsent(key, token) == null && generation.get() != seenGeneration) {
+            tokens.remove(key, token);
+        }
+
+        return token;
+    }
+
+    /**
+     * Remembers a token that was just stored in the account, or forgets it if it's empty.
+     */
+    public static void put(Account account, String tokenType, String token) {
+        Key key = new Key(account, tokenType);
+        generation.incrementAndGet();
+
+        if (TextUtils.isEmpty(token)) {
+            tokens.remove(key);
+        } else {
+            tokens.put(key, token);
+        }
+    }
+
+    /**
+     * Forgets the token, whichever type it's cached as.
+     */
+    public static void invalidate(Account account, String token) {
+        generation.incrementAndGet();
+
+        Iterator<Map.Entry<Key, String>> iterator = tokens.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Key, String> entry = iterator.next();
+
+            if (entry.getKey().account.equals(account) && entry.getValue().equals(token)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every token of the given account.
+     */
+    public static void invalidate(Account account) {
+        generation.incrementAndGet();
+
+        Iterator<Key> iterator = tokens.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().account.equals(account)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public static void clear() {
+        generation.incrementAndGet();
+        tokens.clear();
+    }
+
+    /**
+     * Starts dropping the tokens of accounts as they're removed from the device.
+     */
+    public static synchronized void registerAccountListener(Context context) {
+        if (accountListener != null) {
+            return;
+        }
+
+        accountListener = new OnAccountsUpdateListener() {
+            @Override
+            public void onAccountsUpdated(Account[] accounts) {
+                retainAccounts(new HashSet<>(Arrays.asList(accounts)));
+            }
+        };
+
+        AccountManager.get(context).addOnAccountsUpdatedListener(accountListener, null, true);
+    }
+
+    /**
+     * The number of reads that were served from memory.
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of reads that had to go to the account.
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    private static void retainAccounts(Set<Account> accounts) {
+        generation.incrementAndGet();
+
+        Iterator<Key> iterator = tokens.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (!accounts.contains(iterator.next().account)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+
+        final Account account;
+        final String tokenType;
+
+        Key(Account account, String tokenType) {
+            this.account = account;
+            this.tokenType = tokenType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return account.equals(other.account) && tokenType.equals(other.tokenType);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * account.hashCode() + tokenType.hashCode();
+        }
+
+    }
+
+}
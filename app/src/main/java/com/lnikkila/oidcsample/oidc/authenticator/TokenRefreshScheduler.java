@@ -0,0 +1,210 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+import com.lnikkila.oidcsample.Config;
+import com.lnikkila.oidcsample.R;
+import com.lnikkila.oidcsample.oidc.RefreshFailureTracker;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the tokens of an account in the background shortly before they expire.
+ *
+ * Without this, tokens only get renewed after an API request has already failed with them, so the
+ * user ends up waiting for the failed request, the refresh and the retry. The refresh is scheduled
+ * `Config.tokenRefreshLeadTimeSeconds` before the tokens expire, minus a random jitter of up to
+ * `Config.tokenRefreshJitterSeconds` so that multiple accounts don't all hit the provider at once.
+ *
+ * A refresh that fails because the provider couldn't be reached is tried again after an
+ * exponential backoff. Other failures, e.g. a revoked refresh token, are left to the next
+ * `getAuthToken` call.
+ *
+ * The schedule only lives as long as the process does. It's restored from the stored expiry times
+ * when the app starts, on the scheduler's own thread.
+ *
+ * @author Camilo Montes
+ */
+public class TokenRefreshScheduler {
+
+    private static final String TAG = TokenRefreshScheduler.class.getSimpleName();
+
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final ConcurrentMap<Account, ScheduledFuture<?>> scheduledRefreshes =
+            new ConcurrentHashMap<>();
+
+    // Accounts whose last background refresh failed -> the backoff for retrying it
+    private static final ConcurrentMap<Account, BackOff> retryBackOffs = new ConcurrentHashMap<>();
+
+    private static final Random random = new Random();
+
+    private TokenRefreshScheduler() {}
+
+    /**
+     * Schedules refreshes for all of our accounts based on their stored expiry times. Returns right
+     * away, the stored expiry times are read in the background.
+     */
+    public static void scheduleAll(Context context) {
+        final Context applicationContext = context.getApplicationContext();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                AccountManager accountManager = AccountManager.get(applicationContext);
+                String accountType = applicationContext.getString(R.string.ACCOUNT_TYPE);
+
+                for (Account account : accountManager.getAccountsByType(accountType)) {
+                    schedule(accountManager, account,
+                            TokenStore.getExpiresAt(accountManager, account));
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules a refresh of the account's tokens before the given expiry time, replacing any
+     * previously scheduled refresh. Does nothing if the expiry time is unknown.
+     */
+    public static void schedule(AccountManager accountManager, Account account, long expiresAt) {
+        cancel(account);
+
+        if (expiresAt <= 0) {
+            return;
+        }
+
+        long jitterMillis = (long) (random.nextDouble() * Config.tokenRefreshJitterSeconds * 1000);
+        long refreshAt = expiresAt - Config.tokenRefreshLeadTimeSeconds * 1000 - jitterMillis;
+        long delayMillis = Math.max(0, refreshAt - System.currentTimeMillis());
+
+        Log.d(TAG, String.format("Refreshing tokens of account '%s' in %d s.", account.name,
+                delayMillis / 1000));
+
+        scheduleRefresh(accountManager, account, delayMillis);
+    }
+
+    /**
+     * Cancels the scheduled refresh of the account, e.g. when the account is removed.
+     */
+    public static void cancel(Account account) {
+        retryBackOffs.remove(account);
+
+        ScheduledFuture<?> future = scheduledRefreshes.remove(account);
+
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private static void scheduleRefresh(final AccountManager accountManager, final Account account,
+                                        long delayMillis) {
+
+        ScheduledFuture<?> future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(accountManager, account);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+
+        scheduledRefreshes.put(account, future);
+    }
+
+    private static void refresh(AccountManager accountManager, Account account) {
+        try {
+            // The refresher reschedules the account once the new tokens have been stored
+            IdTokenResponse response = TokenRefresher.refresh(accountManager, account);
+
+            if (response == null) {
+                Log.d(TAG, String.format("Account '%s' has no refresh token.", account.name));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Background refresh of account '%s' failed.", account.name), e);
+
+            if (isRetryable(e)) {
+                retry(accountManager, account, e);
+            }
+
+            // Otherwise the next getAuthToken call will deal with it, by asking the user to
+            // authorise us again
+        }
+    }
+
+    /**
+     * Schedules the account's refresh again after its backoff, or after the tracker lets
+     * refreshes through again if that's later.
+     */
+    private static void retry(AccountManager accountManager, Account account, IOException error) {
+        BackOff backOff = retryBackOffs.get(account);
+
+        if (backOff == null) {
+            backOff = new ExponentialBackOff.Builder()
+                    .setInitialIntervalMillis((int) (Config.tokenRefreshRetryInitialSeconds * 1000))
+                    .setMaxIntervalMillis((int) (Config.tokenRefreshRetryMaxSeconds * 1000))
+                    .setMaxElapsedTimeMillis(Integer.MAX_VALUE)
+                    .build();
+
+            retryBackOffs.put(account, backOff);
+        }
+
+        long delayMillis;
+
+        try {
+            delayMillis = backOff.nextBackOffMillis();
+        } catch (IOException e) {
+            // ExponentialBackOff doesn't actually throw
+            delayMillis = Config.tokenRefreshRetryMaxSeconds * 1000;
+        }
+
+        delayMillis = Math.max(delayMillis, getRetryAt(error) - System.currentTimeMillis());
+
+        Log.d(TAG, String.format("Retrying the refresh of account '%s' in %d s.", account.name,
+                delayMillis / 1000));
+
+        scheduleRefresh(accountManager, account, delayMillis);
+    }
+
+    /**
+     * Whether the refresh failed for a reason that may go away by itself, i.e. the Token Endpoint
+     * couldn't be reached or we backed off from it, and not because it turned us down.
+     */
+    private static boolean isRetryable(IOException error) {
+        return RefreshFailureTracker.isEndpointFailure(error)
+                || error instanceof RefreshFailureTracker.CircuitOpenException
+                || error instanceof RefreshFailureTracker.RecentFailureException;
+    }
+
+    private static long getRetryAt(IOException error) {
+        if (error instanceof RefreshFailureTracker.CircuitOpenException) {
+            return ((RefreshFailureTracker.CircuitOpenException) error).getRetryAt();
+        }
+
+        if (error instanceof RefreshFailureTracker.RecentFailureException) {
+            return ((RefreshFailureTracker.RecentFailureException) error).getRetryAt();
+        }
+
+        return 0;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.lnikkila.oidcsample.Config;
+import com.lnikkila.oidcsample.oidc.OIDCUtils;
+import com.lnikkila.oidcsample.oidc.ProviderConfiguration;
+import com.lnikkila.oidcsample.oidc.RefreshFailureTracker;
+import com.lnikkila.oidcsample.oidc.SingleFlight;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Exchanges an account's Refresh Token for a new set of tokens, making sure that there's only ever
+ * one refresh in flight per account.
+ *
+ * Providers that rotate Refresh Tokens only accept each of them once. If several threads ask for a
+ * token at the same time and each of them started its own refresh, all but the first would fail
+ * with `invalid_grant` and the user would have to log in again. Instead, concurrent callers for the
+ * same account wait for the refresh that is already in flight and share its result. Refreshes for
+ * different accounts don't block each other.
+ *
+ * While the Token Endpoint is failing, refreshes fail straight away instead of adding to its load,
+ * see {@link RefreshFailureTracker}.
+ *
+ * @author Camilo Montes
+ */
+public class TokenRefresher {
+
+    private static final String TAG = TokenRefresher.class.getSimpleName();
+
+    private static final SingleFlight<Account, IdTokenResponse> refreshes = new SingleFlight<>();
+
+    private static final RefreshFailureTracker failureTracker = new RefreshFailureTracker(
+            Config.refreshFailureThreshold,
+            (int) (Config.refreshInitialBackoffSeconds * 1000),
+            (int) (Config.refreshMaxBackoffSeconds * 1000),
+            Config.refreshNegativeCacheSeconds * 1000);
+
+    private TokenRefresher() {}
+
+    /**
+     * Returns the state of the Token Endpoint's circuit breaker, e.g. for monitoring.
+     */
+    public static RefreshFailureTracker getFailureTracker() {
+        return failureTracker;
+    }
+
+    /**
+     * Refreshes and stores the tokens of the given account. Returns the new tokens, or null if the
+     * account doesn't have a Refresh Token.
+     *
+     * Needs to be run on a separate thread.
+     */
+    public static IdTokenResponse refresh(final AccountManager accountManager,
+                                          final Account account) throws IOException {
+
+        return refreshes.execute(account, new Callable<IdTokenResponse>() {
+            @Override
+            public IdTokenResponse call() throws Exception {
+                // The Refresh Token has to be read inside the flight, since a refresh that just
+                // finished may have rotated it.
+                String refreshToken = TokenCache.peekAuthToken(accountManager, account,
+                        Authenticator.TOKEN_TYPE_REFRESH);
+
+                if (TextUtils.isEmpty(refreshToken)) {
+                    return null;
+                }
+
+                ProviderConfiguration provider = OIDCUtils.getProviderConfiguration();
+                String tokenEndpoint = provider.getTokenEndpoint();
+                String issuer = !TextUtils.isEmpty(provider.getIssuer())
+                        ? provider.getIssuer() : tokenEndpoint;
+
+                // Fails fast if the Token Endpoint has been failing
+                failureTracker.checkAllowed(issuer, account.name);
+
+                Log.d(TAG, String.format("Refreshing tokens for account '%s'.", account.name));
+
+                IdTokenResponse response;
+
+                try {
+                    response = OIDCUtils.refreshTokens(tokenEndpoint,
+                                                       Config.clientId,
+                                                       Config.clientSecret,
+                                                       Config.scopes,
+                                                       refreshToken);
+                } catch (IOException e) {
+                    failureTracker.recordFailure(issuer, account.name, e);
+                    throw e;
+                }
+
+                failureTracker.recordSuccess(issuer, account.name);
+
+                long expiresAt = TokenStore.setTokens(accountManager, account, response);
+                TokenRefreshScheduler.schedule(accountManager, account, expiresAt);
+
+                return response;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The tokens of an account along with their expiry time and scope, stored as a single record so
+ * that they're always written and read together.
+ *
+ * Invalidating a token doesn't remove it from the record, it's only marked as invalidated so that
+ * the rest of the set stays intact.
+ *
+ * @author Camilo Montes
+ */
+public class TokenSet extends GenericJson {
+
+    /**
+     * Bumped whenever the format changes in a way that older code couldn't read.
+     */
+    public static final int CURRENT_VERSION = 1;
+
+    @Key("v")
+    private Integer version;
+
+    @Key("id_token")
+    private String idToken;
+
+    @Key("access_token")
+    private String accessToken;
+
+    @Key("refresh_token")
+    private String refreshToken;
+
+    @Key("expires_at")
+    private Long expiresAt;
+
+    @Key
+    private String scope;
+
+    @Key
+    private List<String> invalidated;
+
+    public TokenSet() {
+        version = CURRENT_VERSION;
+    }
+
+    public int getVersion() {
+        return version != null ? version : 0;
+    }
+
+    /**
+     * Returns the token of the given type, or null if there isn't one or it has been invalidated.
+     */
+    public String getToken(String tokenType) {
+        if (isInvalidated(tokenType)) {
+            return null;
+        }
+
+        switch (tokenType) {
+            case Authenticator.TOKEN_TYPE_ID:
+                return idToken;
+            case Authenticator.TOKEN_TYPE_ACCESS:
+                return accessToken;
+            case Authenticator.TOKEN_TYPE_REFRESH:
+                return refreshToken;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Marks every token type that has the given value as invalidated. Returns whether anything
+     * changed.
+     */
+    public boolean invalidate(String token) {
+        boolean changed = false;
+
+        changed |= invalidate(Authenticator.TOKEN_TYPE_ID, idToken, token);
+        changed |= invalidate(Authenticator.TOKEN_TYPE_ACCESS, accessToken, token);
+        changed |= invalidate(Authenticator.TOKEN_TYPE_REFRESH, refreshToken, token);
+
+        return changed;
+    }
+
+    public String getIdToken() {
+        return idToken;
+    }
+
+    public TokenSet setIdToken(String idToken) {
+        this.idToken = idToken;
+        return this;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public TokenSet setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+        return this;
+    }
+
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    public TokenSet setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+        return this;
+    }
+
+    /**
+     * The time in milliseconds when the set expires, or 0 if we don't know.
+     */
+    public long getExpiresAt() {
+        return expiresAt != null ? expiresAt : 0;
+    }
+
+    public TokenSet setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt > 0 ? expiresAt : null;
+        return this;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public TokenSet setScope(String scope) {
+        this.scope = scope;
+        return this;
+    }
+
+    private boolean isInvalidated(String tokenType) {
+        return invalidated != null && invalidated.contains(tokenType);
+    }
+
+    private boolean invalidate(String tokenType, String value, String token) {
+        if (value == null || !value.equals(token) || isInvalidated(tokenType)) {
+            return false;
+        }
+
+        if (invalidated == null) {
+            invalidated = new ArrayList<>();
+        }
+
+        invalidated.add(tokenType);
+        return true;
+    }
+
+}
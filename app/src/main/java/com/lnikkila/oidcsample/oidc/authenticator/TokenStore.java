@@ -0,0 +1,258 @@
+package com.lnikkila.oidcsample.oidc.authenticator;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.json.JsonFactory;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.OIDCUtils;
+
+import java.io.IOException;
+
+/**
+ * Persists a set of tokens in an account.
+ *
+ * The whole set, i.e. the tokens, the time when they expire and their scope, is stored as one
+ * versioned JSON record in the account's user data. That makes storing it a single write, and a
+ * reader can never see the new ID Token together with the old Refresh Token. The individual
+ * token types that the rest of the app asks for are derived from the record.
+ *
+ * The AccountManager still keeps its own copy of every token that our Authenticator hands out, so
+ * invalidating a token has to drop that copy too. Otherwise it would keep returning the rejected
+ * token without asking the Authenticator again.
+ *
+ * @author Camilo Montes
+ */
+public class TokenStore {
+
+    private static final String TAG = TokenStore.class.getSimpleName();
+
+    public static final String KEY_TOKEN_SET = "com.lnikkila.oidcsample.KEY_TOKEN_SET";
+
+    /**
+     * Where the expiry time was stored before the token set had its own record.
+     */
+    public static final String KEY_EXPIRES_AT = "com.lnikkila.oidcsample.KEY_EXPIRES_AT";
+
+    private static final String[] TOKEN_TYPES = {
+            Authenticator.TOKEN_TYPE_ID,
+            Authenticator.TOKEN_TYPE_ACCESS,
+            Authenticator.TOKEN_TYPE_REFRESH
+    };
+
+    // Updates are read-modify-write, so they mustn't interleave
+    private static final Object lock = new Object();
+
+    private TokenStore() {}
+
+    /**
+     * Stores the tokens and their expiry time in the account. Returns the expiry time in
+     * milliseconds, or 0 if it's unknown.
+     */
+    public static long setTokens(AccountManager accountManager, Account account,
+                                 IdTokenResponse response) {
+
+        TokenSet tokenSet = new TokenSet()
+                .setIdToken(response.getIdToken())
+                .setAccessToken(response.getAccessToken())
+                .setRefreshToken(response.getRefreshToken())
+                .setExpiresAt(getExpiresAt(response))
+                .setScope(response.getScope());
+
+        TokenSet previous;
+
+        synchronized (lock) {
+            previous = getTokenSet(accountManager, account);
+
+            // Providers that don't rotate Refresh Tokens leave them out of refresh responses, in
+            // which case the one we have is still good
+            if (TextUtils.isEmpty(tokenSet.getRefreshToken()) && previous != null) {
+                tokenSet.setRefreshToken(previous.getToken(Authenticator.TOKEN_TYPE_REFRESH));
+            }
+
+            write(accountManager, account, tokenSet);
+        }
+
+        // The AccountManager would otherwise keep handing out the tokens these replace
+        if (previous != null) {
+            for (String tokenType : TOKEN_TYPES) {
+                String token = previous.getToken(tokenType);
+
+                if (token != null && !token.equals(tokenSet.getToken(tokenType))) {
+                    accountManager.invalidateAuthToken(account.type, token);
+                }
+            }
+        }
+
+        return tokenSet.getExpiresAt();
+    }
+
+    /**
+     * Returns the stored token set, or null if the account doesn't have one we can read.
+     */
+    public static TokenSet getTokenSet(AccountManager accountManager, Account account) {
+        String json = accountManager.getUserData(account, KEY_TOKEN_SET);
+
+        if (TextUtils.isEmpty(json)) {
+            return migrate(accountManager, account);
+        }
+
+        try {
+            TokenSet tokenSet = getJsonFactory().fromString(json, TokenSet.class);
+
+            if (tokenSet.getVersion() > TokenSet.CURRENT_VERSION) {
+                Log.w(TAG, String.format("Can't read token set version %d.",
+                        tokenSet.getVersion()));
+                return null;
+            }
+
+            return tokenSet;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not read the token set.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored token of the given type, or null if there isn't one or it has been
+     * invalidated.
+     */
+    public static String getToken(AccountManager accountManager, Account account,
+                                  String tokenType) {
+
+        TokenSet tokenSet = getTokenSet(accountManager, account);
+        return tokenSet != null ? tokenSet.getToken(tokenType) : null;
+    }
+
+    /**
+     * Invalidates the token in the account's token set, in the in-memory cache and in the
+     * AccountManager.
+     */
+    public static void invalidateAuthToken(AccountManager accountManager, Account account,
+                                           String token) {
+
+        TokenCache.invalidate(account, token);
+
+        synchronized (lock) {
+            TokenSet tokenSet = getTokenSet(accountManager, account);
+
+            if (tokenSet != null && tokenSet.invalidate(token)) {
+                write(accountManager, account, tokenSet);
+            }
+        }
+
+        // The AccountManager caches what getAuthToken returned, so it has to forget it as well
+        accountManager.invalidateAuthToken(account.type, token);
+    }
+
+    /**
+     * Returns the time in milliseconds when the stored tokens expire, or 0 if we don't know.
+     */
+    public static long getExpiresAt(AccountManager accountManager, Account account) {
+        TokenSet tokenSet = getTokenSet(accountManager, account);
+        return tokenSet != null ? tokenSet.getExpiresAt() : 0;
+    }
+
+    /**
+     * The tokens expire when either the Access Token or the ID Token does, whichever comes first.
+     * We send the ID Token to our APIs, so its `exp` claim matters as much as `expires_in`.
+     */
+    static long getExpiresAt(IdTokenResponse response) {
+        long now = System.currentTimeMillis();
+        long expiresAt = 0;
+
+        Long expiresInSeconds = response.getExpiresInSeconds();
+
+        if (expiresInSeconds != null) {
+            expiresAt = now + expiresInSeconds * 1000;
+        }
+
+        if (!TextUtils.isEmpty(response.getIdToken())) {
+            try {
+                Long expirationTimeSeconds = OIDCUtils.parseIdToken(response.getIdToken())
+                        .getPayload().getExpirationTimeSeconds();
+
+                if (expirationTimeSeconds != null) {
+                    long idTokenExpiresAt = expirationTimeSeconds * 1000;
+                    expiresAt = expiresAt > 0 ? Math.min(expiresAt, idTokenExpiresAt) : idTokenExpiresAt;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Log.w(TAG, "Could not read the ID Token expiry.", e);
+            }
+        }
+
+        return expiresAt;
+    }
+
+    private static void write(AccountManager accountManager, Account account, TokenSet tokenSet) {
+        String json;
+
+        try {
+            json = getJsonFactory().toString(tokenSet);
+        } catch (IOException e) {
+            // Serialising a handful of strings into memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+
+        accountManager.setUserData(account, KEY_TOKEN_SET, json);
+
+        for (String tokenType : TOKEN_TYPES) {
+            TokenCache.put(account, tokenType, tokenSet.getToken(tokenType));
+        }
+    }
+
+    /**
+     * Moves tokens stored as separate auth tokens by older versions into a token set. Returns null
+     * if there was nothing to move.
+     */
+    private static TokenSet migrate(AccountManager accountManager, Account account) {
+        synchronized (lock) {
+            String idToken = accountManager.peekAuthToken(account, Authenticator.TOKEN_TYPE_ID);
+            String accessToken = accountManager.peekAuthToken(account,
+                    Authenticator.TOKEN_TYPE_ACCESS);
+            String refreshToken = accountManager.peekAuthToken(account,
+                    Authenticator.TOKEN_TYPE_REFRESH);
+
+            if (idToken == null && accessToken == null && refreshToken == null) {
+                return null;
+            }
+
+            Log.d(TAG, String.format("Migrating the tokens of account '%s'.", account.name));
+
+            long expiresAt = 0;
+
+            try {
+                String legacyExpiresAt = accountManager.getUserData(account, KEY_EXPIRES_AT);
+                expiresAt = legacyExpiresAt != null ? Long.parseLong(legacyExpiresAt) : 0;
+            } catch (NumberFormatException e) {
+                // We'll just have to wait for a request to fail before refreshing
+            }
+
+            TokenSet tokenSet = new TokenSet()
+                    .setIdToken(idToken)
+                    .setAccessToken(accessToken)
+                    .setRefreshToken(refreshToken)
+                    .setExpiresAt(expiresAt);
+
+            write(accountManager, account, tokenSet);
+            accountManager.setUserData(account, KEY_EXPIRES_AT, null);
+
+            // Otherwise the AccountManager would keep handing them out without asking us
+            for (String token : new String[] { idToken, accessToken, refreshToken }) {
+                if (token != null) {
+                    accountManager.invalidateAuthToken(account.type, token);
+                }
+            }
+
+            return tokenSet;
+        }
+    }
+
+    private static JsonFactory getJsonFactory() {
+        return OIDCClient.getDefault().getJsonFactory();
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.lnikkila.oidcsample.oidc.authenticator.AuthTokenResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+/**
+ * The decisions `Authenticator.getAuthToken` makes, against stubbed token storage and refreshes,
+ * so that only our own overhead is measured.
+ *
+ * @author Camilo Montes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class AuthTokenDecisionBenchmark {
+
+    private static final String TOKEN_TYPE = "com.lnikkila.oidcsample.TOKEN_TYPE_ID";
+
+    private StubTokenSource storedToken;
+    private StubTokenSource refreshedToken;
+    private StubTokenSource rejectedRefreshToken;
+    private StubTokenSource noRefreshToken;
+
+    @Setup
+    public void setUp() throws IOException {
+        storedToken = new StubTokenSource("id-token", "refresh-token", null);
+        refreshedToken = new StubTokenSource(null, "refresh-token", null);
+        rejectedRefreshToken = new StubTokenSource(null, "refresh-token", newInvalidGrant());
+        noRefreshToken = new StubTokenSource(null, null, null);
+    }
+
+    @Benchmark
+    public AuthTokenResolver.Result stored() {
+        return AuthTokenResolver.resolve(storedToken, TOKEN_TYPE);
+    }
+
+    @Benchmark
+    public AuthTokenResolver.Result refreshed() {
+        return AuthTokenResolver.resolve(refreshedToken, TOKEN_TYPE);
+    }
+
+    @Benchmark
+    public AuthTokenResolver.Result invalidGrant() {
+        return AuthTokenResolver.resolve(rejectedRefreshToken, TOKEN_TYPE);
+    }
+
+    @Benchmark
+    public AuthTokenResolver.Result noRefreshToken() {
+        return AuthTokenResolver.resolve(noRefreshToken, TOKEN_TYPE);
+    }
+
+    private static TokenResponseException newInvalidGrant() throws IOException {
+        MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse()
+                .setStatusCode(400)
+                .setContentType(Json.MEDIA_TYPE)
+                .setContent("{\"error\":\"invalid_grant\"}");
+
+        HttpTransport transport = new MockHttpTransport.Builder()
+                .setLowLevelHttpResponse(lowLevelResponse)
+                .build();
+
+        HttpRequest request = transport.createRequestFactory()
+                .buildPostRequest(new GenericUrl("https://provider.example.com/token"), null);
+        request.setThrowExceptionOnExecuteError(false);
+
+        HttpResponse response = request.execute();
+        return TokenResponseException.from(new GsonFactory(), response);
+    }
+
+    /**
+     * Hands out fixed tokens. A successful refresh makes the token available, like the real one
+     * would by storing a new set.
+     */
+    private static class StubTokenSource implements AuthTokenResolver.TokenSource {
+
+        private final String token;
+        private final String refreshToken;
+        private final IOException refreshError;
+
+        private boolean isRefreshed;
+
+        StubTokenSource(String token, String refreshToken, IOException refreshError) {
+            this.token = token;
+            this.refreshToken = refreshToken;
+            this.refreshError = refreshError;
+        }
+
+        @Override
+        public String peekToken(String tokenType) {
+            if (token != null) {
+                return token;
+            }
+
+            // Every invocation starts without a token, so that the refresh path is taken each time
+            if (isRefreshed) {
+                isRefreshed = false;
+                return "refreshed-id-token";
+            }
+
+            return null;
+        }
+
+        @Override
+        public String peekRefreshToken() {
+            return refreshToken;
+        }
+
+        @Override
+        public void refresh() throws IOException {
+            if (refreshError != null) {
+                throw refreshError;
+            }
+
+            isRefreshed = true;
+        }
+
+    }
+
+}
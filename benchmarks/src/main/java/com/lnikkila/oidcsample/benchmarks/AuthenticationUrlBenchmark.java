@@ -0,0 +1,46 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import com.lnikkila.oidcsample.oidc.OIDCUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static com.lnikkila.oidcsample.benchmarks.Fixtures.AUTHORIZATION_ENDPOINT;
+import static com.lnikkila.oidcsample.benchmarks.Fixtures.CLIENT_ID;
+import static com.lnikkila.oidcsample.benchmarks.Fixtures.REDIRECT_URL;
+import static com.lnikkila.oidcsample.benchmarks.Fixtures.SCOPES;
+
+/**
+ * Building the authorisation URL for each of the flows.
+ *
+ * @author Camilo Montes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class AuthenticationUrlBenchmark {
+
+    @Benchmark
+    public String codeFlow() {
+        return OIDCUtils.codeFlowAuthenticationUrl(AUTHORIZATION_ENDPOINT, CLIENT_ID, REDIRECT_URL,
+                SCOPES);
+    }
+
+    @Benchmark
+    public String implicitFlow() {
+        return OIDCUtils.implicitFlowAuthenticationUrl(AUTHORIZATION_ENDPOINT, CLIENT_ID,
+                REDIRECT_URL, SCOPES);
+    }
+
+    @Benchmark
+    public String hybridFlow() {
+        return OIDCUtils.hybridFlowAuthenticationUrl(AUTHORIZATION_ENDPOINT, CLIENT_ID,
+                REDIRECT_URL, SCOPES);
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.util.Base64;
+import com.lnikkila.oidcsample.oidc.JwksCache;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+
+/**
+ * Realistic inputs for the benchmarks: a signed ID Token, a client that can verify it without
+ * going to the network, and typical responses.
+ *
+ * @author Camilo Montes
+ */
+public class Fixtures {
+
+    public static final String ISSUER = "https://provider.example.com";
+    public static final String CLIENT_ID = "benchmark-client";
+    public static final String KEY_ID = "benchmark-key";
+
+    public static final String AUTHORIZATION_ENDPOINT = ISSUER + "/authorize";
+    public static final String REDIRECT_URL = "app://oidc-benchmark/callback";
+    public static final String[] SCOPES = { "openid", "profile", "email", "offline_access" };
+
+    public static final String USER_INFO_JSON = "{"
+            + "\"sub\":\"248289761001\","
+            + "\"name\":\"Jane Doe\","
+            + "\"given_name\":\"Jane\","
+            + "\"family_name\":\"Doe\","
+            + "\"preferred_username\":\"j.doe\","
+            + "\"email\":\"janedoe@example.com\","
+            + "\"email_verified\":true,"
+            + "\"picture\":\"https://provider.example.com/janedoe/me.jpg\","
+            + "\"locale\":\"en-GB\","
+            + "\"address\":{\"country\":\"FI\",\"locality\":\"Espoo\"},"
+            + "\"groups\":[\"staff\",\"learning-layers\",\"ach-so\"],"
+            + "\"updated_at\":1430000000"
+            + "}";
+
+    private static final JsonFactory jsonFactory = new GsonFactory();
+
+    private Fixtures() {}
+
+    public static KeyPair newKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Signs an ID Token for the benchmark client that stays valid for a day.
+     */
+    public static String newIdToken(KeyPair keyPair, String subject)
+            throws GeneralSecurityException, IOException {
+
+        long now = System.currentTimeMillis() / 1000;
+
+        JsonWebSignature.Header header = new JsonWebSignature.Header()
+                .setAlgorithm("RS256")
+                .setKeyId(KEY_ID);
+
+        IdToken.Payload payload = new IdToken.Payload()
+                .setIssuer(ISSUER)
+                .setAudience(CLIENT_ID)
+                .setSubject(subject)
+                .setIssuedAtTimeSeconds(now)
+                .setExpirationTimeSeconds(now + 24 * 60 * 60);
+
+        payload.set("preferred_username", "j.doe");
+        payload.set("name", "Jane Doe");
+
+        return JsonWebSignature.signUsingRsaSha256(keyPair.getPrivate(), jsonFactory, header,
+                payload);
+    }
+
+    /**
+     * Builds a client that verifies signatures with the given key. The key set is written to the
+     * client's cache directory, so it never has to be fetched.
+     *
+     * @param idTokenCacheSize 0 to make every verification start from scratch
+     */
+    public static OIDCClient newClient(KeyPair keyPair, int idTokenCacheSize) throws IOException {
+        File cacheDirectory = File.createTempFile("oidc-benchmark", "");
+
+        if (!cacheDirectory.delete() || !cacheDirectory.mkdir()) {
+            throw new IOException("Could not create " + cacheDirectory);
+        }
+
+        cacheDirectory.deleteOnExit();
+
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        JwksCache.JsonWebKey key = new JwksCache.JsonWebKey();
+        key.keyType = "RSA";
+        key.keyId = KEY_ID;
+        key.use = "sig";
+        key.modulus = toBase64Url(publicKey.getModulus());
+        key.exponent = toBase64Url(publicKey.getPublicExponent());
+
+        JwksCache.KeySet keySet = new JwksCache.KeySet();
+        keySet.keys = Collections.singletonList(key);
+        keySet.expiresAt = Long.MAX_VALUE;
+
+        File keySetFile = new File(cacheDirectory, "oidc-jwks.json");
+        keySetFile.deleteOnExit();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(keySetFile), "UTF-8");
+
+        try {
+            writer.write(jsonFactory.toString(keySet));
+        } finally {
+            writer.close();
+        }
+
+        return new OIDCClient.Builder()
+                .setIssuer(ISSUER)
+                .setKeySetUrl(ISSUER + "/jwks")
+                .setCacheDirectory(cacheDirectory)
+                .setIdTokenCacheSize(idTokenCacheSize)
+                .build();
+    }
+
+    private static String toBase64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+
+        // Drop the sign byte
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+
+        return Base64.encodeBase64URLSafeString(bytes);
+    }
+
+}
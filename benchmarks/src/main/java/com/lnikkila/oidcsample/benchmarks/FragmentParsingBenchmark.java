@@ -0,0 +1,74 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+
+/**
+ * Extracting the tokens from the fragment of the Redirect URI in the Implicit flow, the same way
+ * as `AuthenticatorActivity.CreateIdTokenFromFragmentPartTask` does.
+ *
+ * @author Camilo Montes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class FragmentParsingBenchmark {
+
+    private final JsonFactory jsonFactory = new GsonFactory();
+
+    private String fragmentPart;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = Fixtures.newKeyPair();
+
+        fragmentPart = "access_token=SlAV32hkKG"
+                + "&token_type=bearer"
+                + "&id_token=" + Fixtures.newIdToken(keyPair, "248289761001")
+                + "&expires_in=3600"
+                + "&scope=openid%20profile%20email"
+                + "&state=af0ifjsldkj";
+    }
+
+    @Benchmark
+    public IdTokenResponse parseFragment() {
+        Uri tokenExtrationUrl = new Uri.Builder().encodedQuery(fragmentPart).build();
+        String accessToken = tokenExtrationUrl.getQueryParameter("access_token");
+        String idToken = tokenExtrationUrl.getQueryParameter("id_token");
+        String tokenType = tokenExtrationUrl.getQueryParameter("token_type");
+        String expiresInString = tokenExtrationUrl.getQueryParameter("expires_in");
+        Long expiresIn = (!TextUtils.isEmpty(expiresInString)) ? Long.decode(expiresInString) : null;
+
+        String scope = tokenExtrationUrl.getQueryParameter("scope");
+
+        if (TextUtils.isEmpty(accessToken) || TextUtils.isEmpty(idToken) || TextUtils.isEmpty(tokenType) || expiresIn == null) {
+            return null;
+        }
+
+        IdTokenResponse response = new IdTokenResponse();
+        response.setAccessToken(accessToken);
+        response.setIdToken(idToken);
+        response.setTokenType(tokenType);
+        response.setExpiresInSeconds(expiresIn);
+        response.setScope(scope);
+        response.setFactory(jsonFactory);
+
+        return response;
+    }
+
+}
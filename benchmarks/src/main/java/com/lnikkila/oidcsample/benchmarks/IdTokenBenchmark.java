@@ -0,0 +1,70 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.json.JsonFactory;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+
+/**
+ * Parsing and verifying an ID Token, both from scratch and when the same token has been seen
+ * before, which is the common case for tokens sent with every API request.
+ *
+ * @author Camilo Montes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class IdTokenBenchmark {
+
+    private String idToken;
+
+    private OIDCClient cachingClient;
+    private OIDCClient uncachedClient;
+    private JsonFactory jsonFactory;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = Fixtures.newKeyPair();
+        idToken = Fixtures.newIdToken(keyPair, "248289761001");
+
+        cachingClient = Fixtures.newClient(keyPair, 64);
+        uncachedClient = Fixtures.newClient(keyPair, 0);
+        jsonFactory = cachingClient.getJsonFactory();
+
+        if (!cachingClient.isValidIdToken(Fixtures.CLIENT_ID, idToken)
+                || !uncachedClient.isValidIdToken(Fixtures.CLIENT_ID, idToken)) {
+            throw new IllegalStateException("The fixture token doesn't verify.");
+        }
+    }
+
+    @Benchmark
+    public IdToken parse() throws Exception {
+        return IdToken.parse(jsonFactory, idToken);
+    }
+
+    @Benchmark
+    public IdToken parseCached() throws Exception {
+        return cachingClient.parseIdToken(idToken);
+    }
+
+    @Benchmark
+    public boolean isValidIdToken() throws Exception {
+        return uncachedClient.isValidIdToken(Fixtures.CLIENT_ID, idToken);
+    }
+
+    @Benchmark
+    public boolean isValidIdTokenCached() throws Exception {
+        return cachingClient.isValidIdToken(Fixtures.CLIENT_ID, idToken);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.lnikkila.oidcsample.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Parsing an API response into a Map the way `APIUtility.getJson` does, i.e. streaming it from
+ * the response body, compared to reading the body into a string first.
+ *
+ * @author Camilo Montes
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JsonParsingBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson gson = new Gson();
+    private final byte[] body = Fixtures.USER_INFO_JSON.getBytes(UTF_8);
+
+    @Benchmark
+    public Map streamed() throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body), UTF_8)));
+
+        try {
+            return gson.fromJson(reader, Map.class);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public Map fromString() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body), UTF_8));
+
+        try {
+            StringBuilder string = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+
+            while ((read = reader.read(buffer)) != -1) {
+                string.append(buffer, 0, read);
+            }
+
+            return gson.fromJson(string.toString(), Map.class);
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.util.Locale;
+
+/**
+ * Reads the bits of a `Cache-Control` header that our caches care about.
+ *
+ * @author Camilo Montes
+ */
+public class CacheControl {
+
+    private CacheControl() {}
+
+    /**
+     * Returns the `max-age` directive in seconds, 0 if the response must not be reused without
+     * revalidation (`no-cache` or `no-store`), or -1 if the header doesn't say.
+     */
+    public static long getMaxAgeSeconds(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+
+        long maxAge = -1;
+
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            } else if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring(8).replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    // Ignore a malformed value, like browsers do
+                }
+            }
+        }
+
+        return maxAge;
+    }
+
+    /**
+     * Whether the response mustn't be stored at all, as opposed to just being revalidated before
+     * it's reused.
+     */
+    public static boolean isNoStore(String cacheControl) {
+        if (cacheControl == null) {
+            return false;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            if (directive.trim().equalsIgnoreCase("no-store")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
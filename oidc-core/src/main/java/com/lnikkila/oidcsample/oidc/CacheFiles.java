@@ -0,0 +1,73 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes the small files that our caches persist between launches.
+ *
+ * @author Camilo Montes
+ */
+class CacheFiles {
+
+    private static final String CHARSET = "UTF-8";
+
+    private CacheFiles() {}
+
+    /**
+     * Returns the contents of the file, or null if it doesn't exist.
+     */
+    static String read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        InputStream in = new FileInputStream(file);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+
+            return out.toString(CHARSET);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the contents of the file. The new contents are written to a temporary file first,
+     * so a reader never sees a half-written file.
+     */
+    static void write(File file, String contents) throws IOException {
+        File directory = file.getParentFile();
+
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temporaryFile);
+
+        try {
+            out.write(contents.getBytes(CHARSET));
+        } finally {
+            out.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets everything the token exchange needs ready while the user is still busy logging in.
+ *
+ * The provider configuration and signing keys are loaded and a connection to the Token Endpoint is
+ * opened in the background, so that the code exchange is a single request on a connection that's
+ * already open. The connection is warmed up again every interval for as long as the warmer runs,
+ * since servers close idle connections after a while and the user may take their time.
+ *
+ * @author Camilo Montes
+ */
+public class ConnectionWarmer {
+
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, ConnectionWarmer.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final OIDCClient client;
+    private final boolean warmTokenEndpoint;
+    private final long intervalMillis;
+
+    private ScheduledFuture<?> scheduledWarmUp;
+
+    /**
+     * @param warmTokenEndpoint whether to open a connection to the Token Endpoint, which the
+     *                          Implicit flow doesn't use
+     * @param intervalMillis    how often the connection is warmed up again
+     */
+    public ConnectionWarmer(OIDCClient client, boolean warmTokenEndpoint, long intervalMillis) {
+        this.client = client;
+        this.warmTokenEndpoint = warmTokenEndpoint;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Warms up right away and then every interval until stopped. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (scheduledWarmUp != null) {
+            return;
+        }
+
+        scheduledWarmUp = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops warming up. The connection that's already open stays in the pool.
+     */
+    public synchronized void stop() {
+        if (scheduledWarmUp != null) {
+            scheduledWarmUp.cancel(false);
+            scheduledWarmUp = null;
+        }
+    }
+
+    private void warmUp() {
+        try {
+            client.preload();
+
+            if (warmTokenEndpoint) {
+                String tokenEndpoint = client.getProviderConfiguration().getTokenEndpoint();
+
+                if (tokenEndpoint != null) {
+                    client.warmUp(tokenEndpoint);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nothing lost, the exchange will just have to open its own connection
+        }
+    }
+
+}
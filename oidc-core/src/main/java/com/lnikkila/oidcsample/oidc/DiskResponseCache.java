@@ -0,0 +1,501 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of API responses on disk, so that they survive restarts and don't all have
+ * to be downloaded again on every cold start.
+ *
+ * Each response is kept in a file of its own, named after the scope (i.e. the account) and the URL
+ * it was fetched with, so a response is never served to another account. The file holds the body
+ * together with the validators (`ETag` and `Last-Modified`) needed to revalidate it with a
+ * conditional request.
+ *
+ * When the files add up to more than the maximum size, the least recently used ones are deleted.
+ * Reading an entry bumps its file's modification time, so the order survives restarts too.
+ *
+ * Files are read and written in one go through a {@link FileChannel}. New entries are written to
+ * a temporary file first, so a reader never sees a half-written entry. A broken file is no worse
+ * than a missing one, so it's just deleted and counted as a miss.
+ *
+ * @author Camilo Montes
+ */
+public class DiskResponseCache {
+
+    public static final long DEFAULT_MAX_SIZE_BYTES = 10 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4f494443;
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".entry";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String CHARSET = "UTF-8";
+
+    private final File directory;
+    private final long maxSizeBytes;
+
+    // File name -> its size in bytes, least recently used first. Loaded on first use.
+    private LinkedHashMap<String, Long> index;
+    private long sizeBytes;
+
+    // Distinguishes the temporary files of concurrent writers
+    private final AtomicLong writeCount = new AtomicLong();
+
+    public DiskResponseCache(File directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns the response that was fetched from the URL within the scope, fresh or not, or null
+     * if there isn't one.
+     */
+    public Entry get(String scope, String url) {
+        String fileName = getFileName(scope, url);
+
+        synchronized (this) {
+            // Also marks the entry as the most recently used
+            if (getIndex().get(fileName) == null) {
+                return null;
+            }
+        }
+
+        File file = new File(directory, fileName);
+        Entry entry;
+
+        try {
+            entry = read(file);
+        } catch (IOException | BufferUnderflowException e) {
+            entry = null;
+        }
+
+        // The file could also have been evicted in the meantime, or be for a colliding URL
+        if (entry == null || !entry.scope.equals(scope) || !entry.url.equals(url)) {
+            if (entry == null) {
+                remove(fileName);
+            }
+
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Stores the response, replacing any earlier one for the same scope and URL, and evicts the
+     * least recently used entries if the cache has grown too big. Responses that are bigger than
+     * the whole cache aren't stored.
+     */
+    public void put(Entry entry) {
+        String fileName = getFileName(entry.scope, entry.url);
+        ByteBuffer buffer;
+
+        try {
+            buffer = encode(entry);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long length = buffer.remaining();
+
+        if (length > maxSizeBytes) {
+            remove(fileName);
+            return;
+        }
+
+        synchronized (this) {
+            // Leftover temporary files are cleaned up when the index is built, so it has to exist
+            // before we create ours
+            getIndex();
+        }
+
+        File file = new File(directory, fileName);
+        File temporaryFile = new File(directory,
+                fileName + '.' + writeCount.incrementAndGet() + TEMPORARY_SUFFIX);
+
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                return;
+            }
+
+            write(temporaryFile, buffer);
+        } catch (IOException e) {
+            // We'll just have to download it again
+            temporaryFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            Map<String, Long> index = getIndex();
+
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+                return;
+            }
+
+            Long previousLength = index.remove(fileName);
+
+            if (previousLength != null) {
+                sizeBytes -= previousLength;
+            }
+
+            index.put(fileName, length);
+            sizeBytes += length;
+
+            trimToSize();
+        }
+    }
+
+    /**
+     * Forgets the response that was fetched from the URL within the scope.
+     */
+    public void remove(String scope, String url) {
+        remove(getFileName(scope, url));
+    }
+
+    /**
+     * Forgets every response whose scope isn't one of the given ones, e.g. those of removed
+     * accounts.
+     */
+    public synchronized void retainScopes(Collection<String> scopes) {
+        Set<String> prefixes = new HashSet<>();
+
+        for (String scope : scopes) {
+            prefixes.add(getScopePrefix(scope));
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = getIndex().entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> indexEntry = iterator.next();
+            String fileName = indexEntry.getKey();
+            int separator = fileName.indexOf('-');
+
+            if (separator < 0 || !prefixes.contains(fileName.substring(0, separator))) {
+                new File(directory, fileName).delete();
+                sizeBytes -= indexEntry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (String fileName : getIndex().keySet()) {
+            new File(directory, fileName).delete();
+        }
+
+        index.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * The total size of the cached entries in bytes.
+     */
+    public synchronized long getSizeBytes() {
+        getIndex();
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return getIndex().size();
+    }
+
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    private synchronized void remove(String fileName) {
+        Long length = getIndex().remove(fileName);
+
+        if (length != null) {
+            new File(directory, fileName).delete();
+            sizeBytes -= length;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+
+            new File(directory, eldest.getKey()).delete();
+            sizeBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the index, building it from the files left over from earlier launches the first
+     * time.
+     */
+    private Map<String, Long> getIndex() {
+        if (index != null) {
+            return index;
+        }
+
+        // Access order makes this an LRU
+        index = new LinkedHashMap<>(16, 0.75f, true);
+        sizeBytes = 0;
+
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return index;
+        }
+
+        // Least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String fileName = file.getName();
+
+            if (fileName.endsWith(SUFFIX)) {
+                index.put(fileName, file.length());
+                sizeBytes += file.length();
+            } else if (fileName.endsWith(TEMPORARY_SUFFIX)) {
+                // Left behind by a write that never finished
+                file.delete();
+            }
+        }
+
+        trimToSize();
+        return index;
+    }
+
+    private static void write(File file, ByteBuffer buffer) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            FileChannel channel = out.getChannel();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private Entry read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+
+            if (length > maxSizeBytes) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    return null;
+                }
+            }
+
+            buffer.flip();
+            return decode(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer encode(Entry entry) throws UnsupportedEncodingException {
+        byte[][] strings = {
+                getBytes(entry.scope), getBytes(entry.url), getBytes(entry.contentType),
+                getBytes(entry.etag), getBytes(entry.lastModified)
+        };
+
+        int length = 4 + 4 + 8 + 8 + 4 + entry.body.length;
+
+        for (byte[] string : strings) {
+            length += 4 + (string != null ? string.length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putLong(entry.fetchedAt).putLong(entry.expiresAt);
+
+        for (byte[] string : strings) {
+            putBytes(buffer, string);
+        }
+
+        putBytes(buffer, entry.body);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Entry decode(ByteBuffer buffer) throws UnsupportedEncodingException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+
+        long fetchedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+
+        String scope = getString(buffer);
+        String url = getString(buffer);
+        String contentType = getString(buffer);
+        String etag = getString(buffer);
+        String lastModified = getString(buffer);
+        byte[] body = getBytes(buffer);
+
+        if (scope == null || url == null || body == null || buffer.hasRemaining()) {
+            return null;
+        }
+
+        return new Entry(scope, url, body, contentType, etag, lastModified, fetchedAt,
+                expiresAt);
+    }
+
+    private static byte[] getBytes(String string) throws UnsupportedEncodingException {
+        return string != null ? string.getBytes(CHARSET) : null;
+    }
+
+    private static String getString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        byte[] bytes = getBytes(buffer);
+        return bytes != null ? new String(bytes, CHARSET) : null;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Names the file after digests of the scope and the URL. The scope comes first, so the files
+     * of a scope can be found without reading them.
+     */
+    private static String getFileName(String scope, String url) {
+        return getScopePrefix(scope) + '-' + hexDigest(url).substring(0, 32) + SUFFIX;
+    }
+
+    private static String getScopePrefix(String scope) {
+        return hexDigest(scope).substring(0, 16);
+    }
+
+    private static String hexDigest(String string) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(string.getBytes(CHARSET));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Entry {
+
+        public final String scope;
+        public final String url;
+        public final byte[] body;
+        public final String contentType;
+        public final String etag;
+        public final String lastModified;
+
+        /** When the response was last fetched or revalidated, in milliseconds. */
+        public final long fetchedAt;
+
+        /** Until when the response can be used without revalidating it, in milliseconds. */
+        public final long expiresAt;
+
+        public Entry(String scope, String url, byte[] body, String contentType, String etag,
+                     String lastModified, long fetchedAt, long expiresAt) {
+
+            this.scope = scope;
+            this.url = url;
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        /**
+         * Whether the stale response can still be returned while it's revalidated in the
+         * background, i.e. it was fresh for a while (so not `no-cache` or `max-age=0`) and went
+         * stale less than the given time ago.
+         */
+        public boolean isServableWhileRevalidating(long staleWindowMillis) {
+            return expiresAt > fetchedAt
+                    && System.currentTimeMillis() < expiresAt + staleWindowMillis;
+        }
+
+        /**
+         * Whether the response can be revalidated with a conditional request.
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * The same response, revalidated just now and fresh for the given time.
+         */
+        public Entry revalidated(long freshnessMillis) {
+            long now = System.currentTimeMillis();
+            return new Entry(scope, url, body, contentType, etag, lastModified, now,
+                    now + freshnessMillis);
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.util.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU cache of parsed and verified ID Tokens, keyed by a SHA-256 digest of
+ * the token string.
+ *
+ * The same token string tends to be checked over and over, and each check would otherwise mean a
+ * base64 decode, a JSON parse and a verification. With this cache, checking a token that we've
+ * already seen is a hash lookup.
+ *
+ * Only successful verifications are remembered. A token that failed might pass later, e.g. once
+ * the key set has been refetched after a key rotation. Entries are dropped once the token expires.
+ *
+ * @author Camilo Montes
+ */
+public class IdTokenCache {
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final int maxSize;
+    private final long acceptableTimeSkewMillis;
+
+    private final LinkedHashMap<String, CachedToken> entries;
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * @param acceptableTimeSkewSeconds how long after its `exp` a token is still considered valid
+     */
+    public IdTokenCache(final int maxSize, long acceptableTimeSkewSeconds) {
+        this.maxSize = maxSize;
+        this.acceptableTimeSkewMillis = acceptableTimeSkewSeconds * 1000;
+
+        // Access order makes this an LRU
+        entries = new LinkedHashMap<String, CachedToken>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedToken> eldest) {
+                return size() > maxSize || eldest.getValue().isExpired(System.currentTimeMillis());
+            }
+        };
+    }
+
+    /**
+     * Returns the parsed token, or null if we haven't seen it or it has expired.
+     */
+    public IdToken getParsedToken(String tokenString) {
+        CachedToken entry = get(digest(tokenString));
+        return entry != null ? entry.idToken : null;
+    }
+
+    /**
+     * Whether the token has been verified for the given client and hasn't expired since.
+     */
+    public boolean isVerified(String tokenString, String clientId) {
+        CachedToken entry = get(digest(tokenString));
+        return entry != null && clientId.equals(entry.verifiedClientId);
+    }
+
+    /**
+     * Remembers a parsed token. Tokens that have already expired or don't have an expiry time
+     * aren't cached.
+     */
+    public void putParsedToken(String tokenString, IdToken idToken) {
+        put(digest(tokenString), idToken, null);
+    }
+
+    /**
+     * Remembers that a token was successfully verified for the given client.
+     */
+    public void putVerifiedToken(String tokenString, IdToken idToken, String clientId) {
+        put(digest(tokenString), idToken, clientId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Drops every entry whose token has expired.
+     */
+    public synchronized void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<CachedToken> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private synchronized CachedToken get(String key) {
+        CachedToken entry = entries.get(key);
+
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+
+        return entry;
+    }
+
+    private void put(String key, IdToken idToken, String verifiedClientId) {
+        Long expirationTimeSeconds = idToken.getPayload().getExpirationTimeSeconds();
+
+        if (expirationTimeSeconds == null) {
+            return;
+        }
+
+        long expiresAt = expirationTimeSeconds * 1000 + acceptableTimeSkewMillis;
+
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+
+        synchronized (this) {
+            CachedToken previous = entries.get(key);
+
+            // Don't forget a verification just because someone parsed the same token again
+            if (verifiedClientId == null && previous != null) {
+                return;
+            }
+
+            entries.put(key, new CachedToken(idToken, expiresAt, verifiedClientId));
+        }
+    }
+
+    private static String digest(String tokenString) {
+        try {
+            byte[] digest = digests.get().digest(tokenString.getBytes("UTF-8"));
+            return Base64.encodeBase64String(digest);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedToken {
+
+        final IdToken idToken;
+        final long expiresAt;
+        final String verifiedClientId;
+
+        CachedToken(IdToken idToken, long expiresAt, String verifiedClientId) {
+            this.idToken = idToken;
+            this.expiresAt = expiresAt;
+            this.verifiedClientId = verifiedClientId;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the metrics in memory, so that they can be dumped e.g. with `adb shell dumpsys`.
+ *
+ * Latencies go into histograms with fixed buckets, so recording one is a couple of atomic
+ * increments and the memory used doesn't grow with the number of requests. The percentiles are
+ * therefore approximate: they're the upper bound of the bucket that the percentile falls into.
+ *
+ * @author Camilo Montes
+ */
+public class InMemoryMetrics implements OIDCMetrics {
+
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> retries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> refreshOutcomes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> cacheHits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> cacheMisses = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordLatency(String endpoint, long elapsedNanos, boolean successful) {
+        Histogram histogram = latencies.get(endpoint);
+
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = latencies.putIfAbsent(endpoint, created);
+
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        histogram.record(elapsedNanos);
+
+        if (!successful) {
+            increment(failures, endpoint);
+        }
+    }
+
+    @Override
+    public void recordRetry(String endpoint, int statusCode) {
+        increment(retries, endpoint + " " + statusCode);
+    }
+
+    @Override
+    public void recordRefreshOutcome(String outcome) {
+        increment(refreshOutcomes, outcome);
+    }
+
+    @Override
+    public void recordCacheLookup(String cache, boolean hit) {
+        increment(hit ? cacheHits : cacheMisses, cache);
+    }
+
+    /**
+     * Returns the latency histogram of the endpoint, or null if nothing has been recorded for it.
+     */
+    public Histogram getLatency(String endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    public long getFailureCount(String endpoint) {
+        return get(failures, endpoint);
+    }
+
+    public long getRetryCount(String endpoint, int statusCode) {
+        return get(retries, endpoint + " " + statusCode);
+    }
+
+    public long getRefreshOutcomeCount(String outcome) {
+        return get(refreshOutcomes, outcome);
+    }
+
+    public long getCacheHitCount(String cache) {
+        return get(cacheHits, cache);
+    }
+
+    public long getCacheMissCount(String cache) {
+        return get(cacheMisses, cache);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        latencies.clear();
+        failures.clear();
+        retries.clear();
+        refreshOutcomes.clear();
+        cacheHits.clear();
+        cacheMisses.clear();
+    }
+
+    /**
+     * Writes everything recorded so far in a human-readable form.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Latency (ms):");
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram histogram = entry.getValue();
+
+            writer.println(String.format("%s  %-10s count=%d failed=%d mean=%.1f p50=%d p90=%d " +
+                            "p99=%d max=%d", prefix, entry.getKey(), histogram.getCount(),
+                    getFailureCount(entry.getKey()), histogram.getMeanMillis(),
+                    histogram.getPercentileMillis(50), histogram.getPercentileMillis(90),
+                    histogram.getPercentileMillis(99), histogram.getMaxMillis()));
+        }
+
+        writer.println(prefix + "Retries:");
+
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(retries).entrySet()) {
+            writer.println(String.format("%s  %-10s %d", prefix, entry.getKey(),
+                    entry.getValue().get()));
+        }
+
+        writer.println(prefix + "Refresh outcomes:");
+
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(refreshOutcomes).entrySet()) {
+            writer.println(String.format("%s  %-20s %d", prefix, entry.getKey(),
+                    entry.getValue().get()));
+        }
+
+        writer.println(prefix + "Caches:");
+
+        TreeMap<String, AtomicLong> caches = new TreeMap<>(cacheHits);
+
+        for (String cache : cacheMisses.keySet()) {
+            if (!caches.containsKey(cache)) {
+                caches.put(cache, new AtomicLong());
+            }
+        }
+
+        for (String cache : caches.keySet()) {
+            long hits = getCacheHitCount(cache);
+            long misses = getCacheMissCount(cache);
+
+            writer.println(String.format("%s  %-10s hits=%d misses=%d hit rate=%.1f%%", prefix,
+                    cache, hits, misses, 100.0 * hits / (hits + misses)));
+        }
+
+        writer.flush();
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+
+            if (counter == null) {
+                counter = created;
+            }
+        }
+
+        counter.incrementAndGet();
+    }
+
+    private static long get(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * A latency histogram with roughly logarithmic buckets from 1 ms to 30 s. Anything slower
+     * goes into one last bucket.
+     */
+    public static class Histogram {
+
+        private static final long[] BUCKET_BOUNDS_MILLIS = {
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+        };
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long elapsedNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            int bucket = 0;
+
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(elapsedNanos);
+
+            long max = maxNanos.get();
+
+            while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMeanMillis() {
+            long count = getCount();
+            return count > 0 ? totalNanos.get() / 1e6 / count : 0;
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        /**
+         * Returns the upper bound of the bucket that the given percentile falls into, capped at
+         * the maximum.
+         */
+        public long getPercentileMillis(double percentile) {
+            long count = getCount();
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += buckets.get(i);
+
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxMillis());
+                }
+            }
+
+            return getMaxMillis();
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Base64;
+import com.google.api.client.util.Key;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the provider's signing keys, i.e. its JSON Web Key Set, indexed by key ID (`kid`).
+ *
+ * The key set is fetched once and kept for as long as the `Cache-Control` header of the response
+ * allows. If a token turns up signed with a key we don't know, the provider has probably rotated
+ * its keys, so we fetch the set again, but no more often than once per minimum refetch interval.
+ * Otherwise anyone could make us hammer the provider just by sending tokens with made up key IDs.
+ *
+ * The key set is also written to disk, so that tokens can be verified on a cold start without
+ * going to the network. A stale key set is still used if fetching a new one fails.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7517">JSON Web Key (JWK)</a>
+ *
+ * @author Camilo Montes
+ */
+public class JwksCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000;
+    public static final long DEFAULT_MIN_REFETCH_INTERVAL_MILLIS = 60 * 1000;
+
+    private final String jwksUrl;
+    private final File cacheFile;
+    private final HttpRequestFactory requestFactory;
+    private final JsonFactory jsonFactory;
+
+    private final long defaultTtlMillis;
+    private final long minRefetchIntervalMillis;
+
+    private volatile State state;
+    private long lastFetchedAt;
+
+    /**
+     * @param cacheFile where the key set is persisted, or null to keep it only in memory
+     */
+    public JwksCache(String jwksUrl, File cacheFile, HttpRequestFactory requestFactory,
+                     JsonFactory jsonFactory) {
+
+        this(jwksUrl, cacheFile, requestFactory, jsonFactory, DEFAULT_TTL_MILLIS,
+                DEFAULT_MIN_REFETCH_INTERVAL_MILLIS);
+    }
+
+    public JwksCache(String jwksUrl, File cacheFile, HttpRequestFactory requestFactory,
+                     JsonFactory jsonFactory, long defaultTtlMillis,
+                     long minRefetchIntervalMillis) {
+
+        this.jwksUrl = jwksUrl;
+        this.cacheFile = cacheFile;
+        this.requestFactory = requestFactory;
+        this.jsonFactory = jsonFactory;
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.minRefetchIntervalMillis = minRefetchIntervalMillis;
+    }
+
+    /**
+     * Returns the public key with the given key ID, or null if the provider doesn't have one. If
+     * the key ID is null and the provider only has a single key, that key is returned.
+     *
+     * May need network access, so needs to be run on a separate thread.
+     */
+    public PublicKey getKey(String keyId) throws IOException {
+        State current = load();
+
+        if (current.isExpired()) {
+            current = fetch(current, false);
+        }
+
+        PublicKey key = current.getKey(keyId);
+
+        if (key == null) {
+            // The provider may have rotated its keys since we last fetched them
+            current = fetch(current, true);
+            key = current.getKey(keyId);
+        }
+
+        return key;
+    }
+
+    /**
+     * Makes sure that the key set is loaded and fresh, so that the next verification doesn't have
+     * to wait for it.
+     */
+    public void preload() throws IOException {
+        State current = load();
+
+        if (current.isExpired()) {
+            fetch(current, false);
+        }
+    }
+
+    /**
+     * Returns the in-memory key set, reading it from disk on first use.
+     */
+    private State load() {
+        State current = state;
+
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (state == null) {
+                state = readFromDisk();
+            }
+
+            return state;
+        }
+    }
+
+    /**
+     * Fetches the key set unless someone else already replaced the one we saw. When we're looking
+     * for an unknown key ID, the fetch is rate-limited.
+     */
+    private synchronized State fetch(State seen, boolean isUnknownKey) throws IOException {
+        State current = state;
+
+        if (current != seen) {
+            return current;
+        }
+
+        long now = System.currentTimeMillis();
+
+        // Unknown key IDs and failed fetches of an expired set shouldn't turn into a request
+        // for every token we see
+        boolean isRateLimited = now - lastFetchedAt < minRefetchIntervalMillis;
+
+        if (isRateLimited && (isUnknownKey || !current.keys.isEmpty())) {
+            return current;
+        }
+
+        lastFetchedAt = now;
+
+        KeySet keySet;
+        long ttlMillis;
+
+        try {
+            HttpResponse response = requestFactory.buildGetRequest(new GenericUrl(jwksUrl))
+                    .execute();
+
+            ttlMillis = getTtlMillis(response.getHeaders().getCacheControl());
+            keySet = jsonFactory.fromString(response.parseAsString(), KeySet.class);
+        } catch (IOException e) {
+            if (current.keys.isEmpty()) {
+                throw e;
+            }
+
+            // Keep using the keys we have until the provider is reachable again
+            return current;
+        }
+
+        keySet.expiresAt = now + ttlMillis;
+
+        State next = new State(toPublicKeys(keySet), keySet.expiresAt);
+        state = next;
+
+        writeToDisk(keySet);
+
+        return next;
+    }
+
+    private long getTtlMillis(String cacheControl) {
+        long maxAgeSeconds = CacheControl.getMaxAgeSeconds(cacheControl);
+        long ttlMillis = maxAgeSeconds >= 0 ? maxAgeSeconds * 1000 : defaultTtlMillis;
+
+        // Even if we're told not to cache, refetching for every token isn't reasonable either
+        return Math.max(ttlMillis, minRefetchIntervalMillis);
+    }
+
+    private State readFromDisk() {
+        if (cacheFile != null) {
+            try {
+                String json = CacheFiles.read(cacheFile);
+
+                if (json != null) {
+                    KeySet keySet = jsonFactory.fromString(json, KeySet.class);
+                    long expiresAt = keySet.expiresAt != null ? keySet.expiresAt : 0;
+
+                    return new State(toPublicKeys(keySet), expiresAt);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // A broken cache is no worse than an empty one
+            }
+        }
+
+        return new State(Collections.<String, PublicKey>emptyMap(), 0);
+    }
+
+    private void writeToDisk(KeySet keySet) {
+        if (cacheFile != null) {
+            try {
+                CacheFiles.write(cacheFile, jsonFactory.toString(keySet));
+            } catch (IOException e) {
+                // We'll just have to fetch the keys again on the next launch
+            }
+        }
+    }
+
+    /**
+     * Converts the RSA signing keys of the set. Other key types are ignored, since ID Tokens are
+     * only verified with RS256.
+     */
+    private static Map<String, PublicKey> toPublicKeys(KeySet keySet) {
+        Map<String, PublicKey> keys = new HashMap<>();
+
+        if (keySet.keys == null) {
+            return keys;
+        }
+
+        for (JsonWebKey jwk : keySet.keys) {
+            if (!"RSA".equals(jwk.keyType) || (jwk.use != null && !"sig".equals(jwk.use))
+                    || jwk.modulus == null || jwk.exponent == null) {
+                continue;
+            }
+
+            try {
+                RSAPublicKeySpec spec = new RSAPublicKeySpec(
+                        new BigInteger(1, Base64.decodeBase64(jwk.modulus)),
+                        new BigInteger(1, Base64.decodeBase64(jwk.exponent)));
+
+                keys.put(jwk.keyId, KeyFactory.getInstance("RSA").generatePublic(spec));
+            } catch (GeneralSecurityException e) {
+                // Skip keys we can't use
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * An immutable snapshot of the key set.
+     */
+    private static class State {
+
+        final Map<String, PublicKey> keys;
+        final long expiresAt;
+
+        State(Map<String, PublicKey> keys, long expiresAt) {
+            this.keys = keys;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        PublicKey getKey(String keyId) {
+            if (keyId == null && keys.size() == 1) {
+                return keys.values().iterator().next();
+            }
+
+            return keys.get(keyId);
+        }
+
+    }
+
+    /**
+     * The JWK Set document, plus the time it expires at when persisted.
+     */
+    public static class KeySet extends GenericJson {
+
+        @Key
+        public List<JsonWebKey> keys;
+
+        @Key("expires_at")
+        public Long expiresAt;
+
+    }
+
+    public static class JsonWebKey extends GenericJson {
+
+        @Key("kty")
+        public String keyType;
+
+        @Key("kid")
+        public String keyId;
+
+        @Key
+        public String use;
+
+        @Key("n")
+        public String modulus;
+
+        @Key("e")
+        public String exponent;
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.lnikkila.oidcsample.oidc;
+
+/**
+ * Receives the result of an asynchronous {@link OIDCUtils} call. Callbacks are delivered on the
+ * client's callback executor, see {@link OIDCClient.Builder#setCallbackExecutor}.
+ *
+ * @author Camilo Montes
+ */
+public interface OIDCCallback<T> {
+
+    void onSuccess(T result);
+
+    void onFailure(Exception e);
+
+}
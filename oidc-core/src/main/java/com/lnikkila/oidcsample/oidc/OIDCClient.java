@@ -0,0 +1,926 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.auth.oauth2.AuthorizationCodeTokenRequest;
+import com.google.api.client.auth.oauth2.RefreshTokenRequest;
+import com.google.api.client.auth.oauth2.TokenRequest;
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
+import com.google.api.client.http.BasicAuthentication;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+
+/**
+ * A long-lived client for talking to the OpenID Connect provider. The static helpers in
+ * {@link OIDCUtils} delegate to the default instance of this class.
+ *
+ * Creating a new transport and JSON factory for every request means that every token exchange
+ * pays for a new TCP and TLS handshake. Instead, this client owns a single transport backed by the
+ * platform's keep-alive connection pool, a single JSON factory and the precomputed client
+ * credentials, all of which are safe to share between threads.
+ *
+ * The client also keeps a couple of counters, so you can see how often connections are actually
+ * being reused. Only TLS connections are counted, since those are the ones we care about.
+ *
+ * @author Camilo Montes
+ */
+public class OIDCClient {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    private static final String KEY_SET_CACHE_FILE_NAME = "oidc-jwks.json";
+    private static final String DISCOVERY_CACHE_FILE_NAME = "oidc-configuration.json";
+
+    private static OIDCClient defaultClient;
+
+    private final HttpTransport transport;
+    private final JsonFactory jsonFactory;
+    private final Gson gson = new Gson();
+    private final HttpRequestInitializer requestInitializer;
+    private final HttpRequestFactory requestFactory;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // Only known for HTTPS requests through the default transport, see newDefaultTransport
+    private final boolean countsTlsConnections;
+    private final AtomicLong tlsRequestCount = new AtomicLong();
+    private final AtomicLong tlsConnectionCount = new AtomicLong();
+
+    private final IdTokenVerifier idTokenVerifier;
+    private final IdTokenCache idTokenCache;
+    private final UserInfoCache userInfoCache;
+    private final JwksCache keySetCache;
+
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+
+    private final OIDCMetrics metrics;
+
+    private final ProviderConfiguration providerConfiguration;
+    private final ProviderDiscovery providerDiscovery;
+
+    private volatile BasicAuthentication clientAuthentication;
+
+    private OIDCClient(Builder builder) {
+        transport = builder.transport != null ? builder.transport : newDefaultTransport(builder);
+        countsTlsConnections = builder.transport == null;
+        jsonFactory = new GsonFactory();
+
+        requestInitializer = new HttpRequestInitializer() {
+            @Override
+            public void initialize(com.google.api.client.http.HttpRequest request)
+                    throws IOException {
+
+                // The request factory only sets the URL after initializing the request, so the
+                // requests are counted as they're sent
+                final HttpExecuteInterceptor interceptor = request.getInterceptor();
+
+                request.setInterceptor(new HttpExecuteInterceptor() {
+                    @Override
+                    public void intercept(com.google.api.client.http.HttpRequest request)
+                            throws IOException {
+
+                        if (interceptor != null) {
+                            interceptor.intercept(request);
+                        }
+
+                        requestCount.incrementAndGet();
+
+                        if (countsTlsConnections
+                                && "https".equals(request.getUrl().getScheme())) {
+                            tlsRequestCount.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        };
+
+        if (builder.clientId != null) {
+            clientAuthentication = new BasicAuthentication(builder.clientId, builder.clientSecret);
+        }
+
+        // The audience is checked separately, since it's given to us with each token
+        idTokenVerifier = new IdTokenVerifier.Builder().setIssuer(builder.issuer).build();
+        idTokenCache = new IdTokenCache(builder.idTokenCacheSize,
+                idTokenVerifier.getAcceptableTimeSkewSeconds());
+        userInfoCache = new UserInfoCache(builder.userInfoMaxAgeMillis,
+                builder.userInfoCacheSize);
+
+        executor = builder.executor != null
+                ? builder.executor : Executors.newFixedThreadPool(DEFAULT_THREAD_COUNT);
+        callbackExecutor = builder.callbackExecutor != null
+                ? builder.callbackExecutor : new DirectExecutor();
+
+        metrics = builder.metrics != null ? builder.metrics : OIDCMetrics.NONE;
+
+        requestFactory = transport.createRequestFactory(requestInitializer);
+
+        if (builder.jwksUrl != null) {
+            keySetCache = new JwksCache(builder.jwksUrl,
+                    getCacheFile(builder, KEY_SET_CACHE_FILE_NAME), requestFactory, jsonFactory);
+        } else {
+            keySetCache = null;
+        }
+
+        providerConfiguration = builder.providerConfiguration != null
+                ? builder.providerConfiguration : new ProviderConfiguration();
+
+        if (builder.discoveryUrl != null) {
+            String issuer = builder.issuer != null
+                    ? builder.issuer : providerConfiguration.getIssuer();
+
+            providerDiscovery = new ProviderDiscovery(builder.discoveryUrl, issuer,
+                    getCacheFile(builder, DISCOVERY_CACHE_FILE_NAME), requestFactory, jsonFactory,
+                    providerConfiguration);
+        } else {
+            providerDiscovery = null;
+        }
+    }
+
+    /**
+     * Returns the shared client, creating one with the default settings if needed.
+     */
+    public static synchronized OIDCClient getDefault() {
+        if (defaultClient == null) {
+            defaultClient = new Builder().build();
+        }
+
+        return defaultClient;
+    }
+
+    /**
+     * Replaces the shared client. Call this early on, e.g. in `Application.onCreate()`, if you
+     * want to change the pool settings.
+     */
+    public static synchronized void setDefault(OIDCClient client) {
+        defaultClient = client;
+    }
+
+    /**
+     * Returns where the client reports its latencies and cache lookups. The app reports its own
+     * measurements here as well, so that they all end up in one place.
+     */
+    public OIDCMetrics getMetrics() {
+        return metrics;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+
+    /**
+     * Returns the provider's endpoints. If discovery is enabled, they come from the provider's
+     * discovery document, otherwise from the configuration given to the builder.
+     *
+     * Blocks only if discovery is enabled and the document has never been fetched before.
+     */
+    public ProviderConfiguration getProviderConfiguration() {
+        return providerDiscovery != null
+                ? providerDiscovery.getConfiguration() : providerConfiguration;
+    }
+
+    /**
+     * The provider's discovery document, or null if discovery isn't enabled.
+     */
+    public ProviderDiscovery getProviderDiscovery() {
+        return providerDiscovery;
+    }
+
+    /**
+     * Should be set on every request made with the shared transport so that it gets counted.
+     */
+    public HttpRequestInitializer getRequestInitializer() {
+        return requestInitializer;
+    }
+
+    /**
+     * Returns the client credentials for the Token Endpoint. The credentials are reused as long as
+     * the client ID and secret stay the same.
+     */
+    public BasicAuthentication getClientAuthentication(String clientId, String clientSecret) {
+        BasicAuthentication authentication = clientAuthentication;
+
+        if (authentication == null || !authentication.getUsername().equals(clientId)
+                || !authentication.getPassword().equals(clientSecret)) {
+            authentication = new BasicAuthentication(clientId, clientSecret);
+            clientAuthentication = authentication;
+        }
+
+        return authentication;
+    }
+
+    /**
+     * Exchanges an Authorization Code for an Access Token, Refresh Token and (optional) ID Token.
+     *
+     * Needs to be run on a separate thread.
+     *
+     * @see OIDCUtils#requestTokens(String, String, String, String, String)
+     */
+    public IdTokenResponse requestTokens(String tokenServerUrl, String redirectUrl,
+                                         String clientId, String clientSecret,
+                                         String authCode) throws IOException {
+
+        AuthorizationCodeTokenRequest request = new AuthorizationCodeTokenRequest(
+                transport,
+                jsonFactory,
+                new GenericUrl(tokenServerUrl),
+                authCode
+        );
+        request.setRequestInitializer(requestInitializer);
+        request.set("redirect_uri", redirectUrl);
+
+        if (!isEmpty(clientSecret)) {
+            request.setClientAuthentication(getClientAuthentication(clientId, clientSecret));
+        }
+
+        IdTokenResponse response = execute(request, OIDCMetrics.ENDPOINT_TOKEN);
+        String idToken = response.getIdToken();
+
+        if (isValidIdToken(clientId, idToken)) {
+            return response;
+        } else {
+            throw new IOException("Invalid ID token returned.");
+        }
+    }
+
+    /**
+     * Runs {@link #requestTokens} on the client's executor.
+     *
+     * @param callback notified of the result, may be null
+     */
+    public Future<IdTokenResponse> requestTokensAsync(final String tokenServerUrl,
+                                                      final String redirectUrl,
+                                                      final String clientId,
+                                                      final String clientSecret,
+                                                      final String authCode,
+                                                      OIDCCallback<IdTokenResponse> callback) {
+
+        return submit(new Callable<IdTokenResponse>() {
+            @Override
+            public IdTokenResponse call() throws Exception {
+                return requestTokens(tokenServerUrl, redirectUrl, clientId, clientSecret,
+                        authCode);
+            }
+        }, callback);
+    }
+
+    /**
+     * Exchanges a Refresh Token for a new set of tokens.
+     *
+     * Needs to be run on a separate thread.
+     *
+     * @see OIDCUtils#refreshTokens(String, String, String, String[], String)
+     */
+    public IdTokenResponse refreshTokens(String tokenServerUrl, String clientId,
+                                         String clientSecret, String[] scopes,
+                                         String refreshToken) throws IOException {
+
+        RefreshTokenRequest request = new RefreshTokenRequest(
+                transport,
+                jsonFactory,
+                new GenericUrl(tokenServerUrl),
+                refreshToken
+        );
+        request.setRequestInitializer(requestInitializer);
+
+        if (!isEmpty(clientSecret)) {
+            request.setClientAuthentication(getClientAuthentication(clientId, clientSecret));
+        }
+        request.setScopes(Arrays.asList(scopes));
+
+        return execute(request, OIDCMetrics.ENDPOINT_REFRESH);
+    }
+
+    /**
+     * Runs {@link #refreshTokens} on the client's executor.
+     *
+     * @param callback notified of the result, may be null
+     */
+    public Future<IdTokenResponse> refreshTokensAsync(final String tokenServerUrl,
+                                                      final String clientId,
+                                                      final String clientSecret,
+                                                      final String[] scopes,
+                                                      final String refreshToken,
+                                                      OIDCCallback<IdTokenResponse> callback) {
+
+        return submit(new Callable<IdTokenResponse>() {
+            @Override
+            public IdTokenResponse call() throws Exception {
+                return refreshTokens(tokenServerUrl, clientId, clientSecret, scopes,
+                        refreshToken);
+            }
+        }, callback);
+    }
+
+    /**
+     * Verifies an ID Token. If the client has been configured with the provider's key set, the
+     * signature and issuer of the token are verified as well.
+     *
+     * May need network access for fetching the key set, so needs to be run on a separate thread.
+     *
+     * @see OIDCUtils#isValidIdToken(String, String)
+     */
+    public boolean isValidIdToken(String clientId, String tokenString) throws IOException {
+        boolean cached = idTokenCache.isVerified(tokenString, clientId);
+        metrics.recordCacheLookup(OIDCMetrics.CACHE_ID_TOKEN, cached);
+
+        if (cached) {
+            return true;
+        }
+
+        IdToken idToken = parseIdToken(tokenString);
+
+        if (!idToken.verifyAudience(Collections.singletonList(clientId))
+                || !idTokenVerifier.verify(idToken)) {
+            return false;
+        }
+
+        if (keySetCache != null && !hasValidSignature(idToken)) {
+            return false;
+        }
+
+        idTokenCache.putVerifiedToken(tokenString, idToken, clientId);
+        return true;
+    }
+
+    /**
+     * Gets user information from the UserInfo endpoint. The claims are cached per subject and
+     * revalidated with conditional requests, see {@link UserInfoCache}.
+     *
+     * Needs to be run on a separate thread.
+     *
+     * @see OIDCUtils#getUserInfo(String, String)
+     */
+    public Map getUserInfo(String userInfoUrl, String idToken) throws IOException {
+        String subject = getSubject(idToken);
+        UserInfoCache.Entry cached = subject != null ? userInfoCache.get(userInfoUrl, subject) : null;
+
+        boolean fresh = cached != null && userInfoCache.isFresh(cached);
+        metrics.recordCacheLookup(OIDCMetrics.CACHE_USERINFO, fresh);
+
+        if (fresh) {
+            return cached.claims;
+        }
+
+        com.google.api.client.http.HttpRequest request =
+                requestFactory.buildGetRequest(new GenericUrl(userInfoUrl));
+        request.setThrowExceptionOnExecuteError(false);
+
+        HttpHeaders headers = request.getHeaders();
+        headers.setAuthorization("Bearer " + idToken);
+        headers.setAccept(Json.MEDIA_TYPE);
+
+        if (cached != null) {
+            if (cached.etag != null) {
+                headers.setIfNoneMatch(cached.etag);
+            }
+
+            if (cached.lastModified != null) {
+                headers.setIfModifiedSince(cached.lastModified);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        HttpResponse response;
+
+        try {
+            response = request.execute();
+        } catch (IOException e) {
+            metrics.recordLatency(OIDCMetrics.ENDPOINT_USERINFO, System.nanoTime() - startTime,
+                    false);
+            throw e;
+        }
+
+        metrics.recordLatency(OIDCMetrics.ENDPOINT_USERINFO, System.nanoTime() - startTime,
+                response.isSuccessStatusCode() || response.getStatusCode() == HTTP_NOT_MODIFIED);
+
+        try {
+            if (cached != null && response.getStatusCode() == HTTP_NOT_MODIFIED) {
+                userInfoCache.put(userInfoUrl, subject, cached.revalidated());
+                return cached.claims;
+            } else if (response.isSuccessStatusCode()) {
+                Map claims = Collections.unmodifiableMap(
+                        gson.fromJson(response.parseAsString(), Map.class));
+
+                if (subject != null) {
+                    userInfoCache.put(userInfoUrl, subject, new UserInfoCache.Entry(claims,
+                            response.getHeaders().getETag(),
+                            response.getHeaders().getLastModified(),
+                            System.currentTimeMillis()));
+                }
+
+                return claims;
+            } else {
+                throw new IOException(response.getStatusCode() + " "
+                        + response.getStatusMessage());
+            }
+        } finally {
+            // Hands the connection back to the pool
+            response.ignore();
+        }
+    }
+
+    /**
+     * Runs {@link #getUserInfo} on the client's executor.
+     *
+     * @param callback notified of the result, may be null
+     */
+    public Future<Map> getUserInfoAsync(final String userInfoUrl, final String idToken,
+                                        OIDCCallback<Map> callback) {
+
+        return submit(new Callable<Map>() {
+            @Override
+            public Map call() throws Exception {
+                return getUserInfo(userInfoUrl, idToken);
+            }
+        }, callback);
+    }
+
+    /**
+     * Cached UserInfo claims.
+     */
+    public UserInfoCache getUserInfoCache() {
+        return userInfoCache;
+    }
+
+    /**
+     * The provider's signing keys, or null if signatures aren't verified.
+     */
+    public JwksCache getKeySetCache() {
+        return keySetCache;
+    }
+
+    /**
+     * Parses an ID Token without verifying it. Parsed tokens are cached until they expire, so the
+     * returned token is shared and shouldn't be modified.
+     *
+     * @see OIDCUtils#parseIdToken(String)
+     */
+    public IdToken parseIdToken(String tokenString) throws IOException {
+        IdToken idToken = idTokenCache.getParsedToken(tokenString);
+
+        if (idToken == null) {
+            idToken = IdToken.parse(jsonFactory, tokenString);
+            idTokenCache.putParsedToken(tokenString, idToken);
+        }
+
+        return idToken;
+    }
+
+    /**
+     * Opens a connection to the URL's host ahead of time with an OPTIONS request, so that the next
+     * request to the same host can skip the DNS lookup and the TCP and TLS handshakes. The
+     * connection stays in the pool for as long as the keep-alive duration allows.
+     *
+     * OPTIONS rather than HEAD, since not every HttpURLConnection implementation hands the
+     * connection of a HEAD request back to the pool. Whatever the response is, it's ignored.
+     *
+     * Needs to be run on a separate thread.
+     */
+    public void warmUp(String url) throws IOException {
+        com.google.api.client.http.HttpRequest request =
+                requestFactory.buildRequest(HttpMethods.OPTIONS, new GenericUrl(url), null);
+
+        // Endpoints that only accept POST may well say 405, but the connection is what we're after
+        request.setThrowExceptionOnExecuteError(false);
+
+        // Reading the response to the end hands the connection back to the pool
+        request.execute().ignore();
+    }
+
+    /**
+     * Makes sure that the provider configuration and the signing keys are loaded, so that the
+     * next token exchange and verification don't have to wait for them.
+     *
+     * Needs to be run on a separate thread.
+     */
+    public void preload() throws IOException {
+        getProviderConfiguration();
+
+        if (keySetCache != null) {
+            keySetCache.preload();
+        }
+    }
+
+    /**
+     * Parsed and verified ID Tokens that we've seen recently.
+     */
+    public IdTokenCache getIdTokenCache() {
+        return idTokenCache;
+    }
+
+    /**
+     * The number of requests that have been made through the shared transport.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * The number of new TLS connections that the default transport has opened. Plain HTTP
+     * connections and those of a transport set with {@link Builder#setTransport} aren't counted.
+     */
+    public long getTlsConnectionCount() {
+        return tlsConnectionCount.get();
+    }
+
+    /**
+     * The number of HTTPS requests through the default transport that were served on an already
+     * open connection. Other requests aren't counted, since we can't see their connections.
+     */
+    public long getReusedTlsConnectionCount() {
+        return Math.max(0, tlsRequestCount.get() - tlsConnectionCount.get());
+    }
+
+    private boolean hasValidSignature(IdToken idToken) throws IOException {
+        PublicKey key = keySetCache.getKey(idToken.getHeader().getKeyId());
+
+        if (key == null) {
+            return false;
+        }
+
+        try {
+            return idToken.verifySignature(key);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The executor that asynchronous calls run on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the call on the executor and reports the outcome to the callback on the callback
+     * executor.
+     */
+    private <T> Future<T> submit(final Callable<T> call, final OIDCCallback<T> callback) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result;
+
+                try {
+                    result = call.call();
+                } catch (final Exception e) {
+                    if (callback != null) {
+                        callbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(e);
+                            }
+                        });
+                    }
+
+                    throw e;
+                }
+
+                if (callback != null) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onSuccess(result);
+                        }
+                    });
+                }
+
+                return result;
+            }
+        });
+    }
+
+    private String getSubject(String idToken) {
+        try {
+            return parseIdToken(idToken).getPayload().getSubject();
+        } catch (IOException | IllegalArgumentException e) {
+            // Not a token we can read, so we can't tell whose claims these are either
+            return null;
+        }
+    }
+
+    /**
+     * An HttpURLConnection based transport, which works the same on Android and on the JVM.
+     */
+    private HttpTransport newDefaultTransport(Builder builder) {
+        // HttpURLConnection reads its pool configuration from these system properties. They're
+        // global, so the last client that was built wins.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(builder.maxConnections));
+        System.setProperty("http.keepAliveDuration", String.valueOf(builder.keepAliveDurationMillis));
+
+        // Every pooled connection shares this socket factory, so counting the sockets it creates
+        // tells us how many new connections we had to open.
+        SSLSocketFactory socketFactory = new CountingSSLSocketFactory(
+                HttpsURLConnection.getDefaultSSLSocketFactory(), tlsConnectionCount);
+
+        return new NetHttpTransport.Builder().setSslSocketFactory(socketFactory).build();
+    }
+
+    /**
+     * Executes a token request and records how long it took.
+     */
+    private IdTokenResponse execute(TokenRequest request, String endpoint) throws IOException {
+        long startTime = System.nanoTime();
+        boolean successful = false;
+
+        try {
+            IdTokenResponse response = IdTokenResponse.execute(request);
+            successful = true;
+            return response;
+        } finally {
+            metrics.recordLatency(endpoint, System.nanoTime() - startTime, successful);
+        }
+    }
+
+    private static File getCacheFile(Builder builder, String fileName) {
+        return builder.cacheDirectory != null ? new File(builder.cacheDirectory, fileName) : null;
+    }
+
+    private static boolean isEmpty(String string) {
+        return string == null || string.length() == 0;
+    }
+
+    /**
+     * Builds a client with custom connection pool settings.
+     */
+    public static class Builder {
+
+        private HttpTransport transport;
+
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private long keepAliveDurationMillis = DEFAULT_KEEP_ALIVE_DURATION_MILLIS;
+
+        private String clientId;
+        private String clientSecret;
+
+        private int idTokenCacheSize = IdTokenCache.DEFAULT_MAX_SIZE;
+
+        private String issuer;
+        private String jwksUrl;
+        private File cacheDirectory;
+
+        private ExecutorService executor;
+        private Executor callbackExecutor;
+
+        private OIDCMetrics metrics;
+
+        private long userInfoMaxAgeMillis = UserInfoCache.DEFAULT_MAX_AGE_MILLIS;
+        private int userInfoCacheSize = UserInfoCache.DEFAULT_MAX_SIZE;
+
+        private ProviderConfiguration providerConfiguration;
+        private String discoveryUrl;
+
+        /**
+         * The HTTP transport that every request to the provider goes through, e.g. an Apache or
+         * OkHttp based one on a server, or a mock in tests. The transport should be shared and
+         * pool its connections.
+         *
+         * By default, an HttpURLConnection based transport is used. The connection pool settings
+         * and the connection count only apply to the default transport.
+         */
+        public Builder setTransport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * The maximum number of idle connections to keep in the pool.
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * How long an idle connection is kept in the pool before it's closed.
+         */
+        public Builder setKeepAliveDuration(long keepAliveDurationMillis) {
+            this.keepAliveDurationMillis = keepAliveDurationMillis;
+            return this;
+        }
+
+        /**
+         * Precomputes the client credentials, so the first token request doesn't have to.
+         */
+        public Builder setClientCredentials(String clientId, String clientSecret) {
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+            return this;
+        }
+
+        /**
+         * The expected `iss` claim of ID Tokens. If not set, the issuer isn't verified.
+         */
+        public Builder setIssuer(String issuer) {
+            this.issuer = issuer;
+            return this;
+        }
+
+        /**
+         * The URL of the provider's JSON Web Key Set. If set, the signatures of ID Tokens are
+         * verified against it.
+         */
+        public Builder setKeySetUrl(String jwksUrl) {
+            this.jwksUrl = jwksUrl;
+            return this;
+        }
+
+        /**
+         * Where things like the key set are persisted between launches. If not set, they're only
+         * kept in memory.
+         */
+        public Builder setCacheDirectory(File cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        /**
+         * The provider's endpoints. If discovery is enabled, these are only used for whatever the
+         * discovery document doesn't tell us or if it can't be fetched.
+         */
+        public Builder setProviderConfiguration(ProviderConfiguration providerConfiguration) {
+            this.providerConfiguration = providerConfiguration;
+            return this;
+        }
+
+        /**
+         * The URL of the provider's discovery document, usually the issuer followed by
+         * {@link ProviderDiscovery#WELL_KNOWN_PATH}. If set, the endpoints are resolved from it.
+         */
+        public Builder setDiscoveryUrl(String discoveryUrl) {
+            this.discoveryUrl = discoveryUrl;
+            return this;
+        }
+
+        /**
+         * The executor that asynchronous calls run on. By default, a fixed pool of
+         * {@link #DEFAULT_THREAD_COUNT} threads is used, so that independent calls can run
+         * concurrently.
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The executor that callbacks of asynchronous calls are delivered on, e.g. one that posts
+         * to the main thread. By default, callbacks are delivered on the thread that made the call.
+         */
+        public Builder setCallbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * How long UserInfo claims are served from the cache without asking the server at all.
+         */
+        public Builder setUserInfoMaxAge(long userInfoMaxAgeMillis) {
+            this.userInfoMaxAgeMillis = userInfoMaxAgeMillis;
+            return this;
+        }
+
+        /**
+         * How many subjects to remember the UserInfo claims of.
+         */
+        public Builder setUserInfoCacheSize(int userInfoCacheSize) {
+            this.userInfoCacheSize = userInfoCacheSize;
+            return this;
+        }
+
+        /**
+         * How many parsed and verified ID Tokens to remember.
+         */
+        public Builder setIdTokenCacheSize(int idTokenCacheSize) {
+            this.idTokenCacheSize = idTokenCacheSize;
+            return this;
+        }
+
+        /**
+         * Where to report latencies, retries and cache lookups. If not set, nothing is recorded.
+         */
+        public Builder setMetrics(OIDCMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public OIDCClient build() {
+            return new OIDCClient(this);
+        }
+
+    }
+
+    private static class DirectExecutor implements Executor {
+
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+
+    }
+
+    /**
+     * Counts every socket it creates and delegates the rest.
+     */
+    private static class CountingSSLSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+        private final AtomicLong counter;
+
+        CountingSSLSocketFactory(SSLSocketFactory delegate, AtomicLong counter) {
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+                throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            counter.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+
+    }
+
+}
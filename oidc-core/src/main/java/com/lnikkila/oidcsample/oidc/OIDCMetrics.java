@@ -0,0 +1,75 @@
+package com.lnikkila.oidcsample.oidc;
+
+/**
+ * Receives measurements from the OIDC and API code: how long requests to each endpoint take,
+ * which requests had to be retried, how token refreshes turned out and how often the caches were
+ * hit.
+ *
+ * Implementations are called from whichever thread made the request, so they need to be
+ * thread-safe and quick. The default is {@link #NONE}, which throws everything away. Use
+ * {@link InMemoryMetrics} to actually collect them.
+ *
+ * @author Camilo Montes
+ */
+public interface OIDCMetrics {
+
+    /** The Token Endpoint, when exchanging an Authorization Code. */
+    String ENDPOINT_TOKEN = "token";
+
+    /** The Token Endpoint, when exchanging a Refresh Token. */
+    String ENDPOINT_REFRESH = "refresh";
+
+    String ENDPOINT_USERINFO = "userinfo";
+
+    /** Our own APIs, called with the ID Token. */
+    String ENDPOINT_API = "api";
+
+    String CACHE_ID_TOKEN = "id_token";
+    String CACHE_USERINFO = "userinfo";
+    String CACHE_AUTH_TOKEN = "auth_token";
+
+    /** Parsed responses of our own APIs, see {@link ResponseCache}. */
+    String CACHE_API_RESPONSE = "api_response";
+
+    /** API responses on disk, see {@link DiskResponseCache}. */
+    String CACHE_API_DISK = "api_disk";
+
+    /**
+     * Doesn't record anything.
+     */
+    OIDCMetrics NONE = new OIDCMetrics() {
+
+        @Override
+        public void recordLatency(String endpoint, long elapsedNanos, boolean successful) {}
+
+        @Override
+        public void recordRetry(String endpoint, int statusCode) {}
+
+        @Override
+        public void recordRefreshOutcome(String outcome) {}
+
+        @Override
+        public void recordCacheLookup(String cache, boolean hit) {}
+
+    };
+
+    /**
+     * Records how long a request took, from sending it until the response headers had been read
+     * or it failed.
+     */
+    void recordLatency(String endpoint, long elapsedNanos, boolean successful);
+
+    /**
+     * Records that a request was rejected with the given status code and will be retried.
+     */
+    void recordRetry(String endpoint, int statusCode);
+
+    /**
+     * Records how getting an auth token for an account turned out, e.g. whether the stored token
+     * could be used or whether it had to be refreshed.
+     */
+    void recordRefreshOutcome(String outcome);
+
+    void recordCacheLookup(String cache, boolean hit);
+
+}
@@ -1,33 +1,25 @@
 package com.lnikkila.oidcsample.oidc;
 
-import android.text.TextUtils;
-
 import com.github.kevinsawicki.http.HttpRequest;
 import com.google.api.client.auth.oauth2.AuthorizationCodeFlow;
 import com.google.api.client.auth.oauth2.AuthorizationCodeRequestUrl;
-import com.google.api.client.auth.oauth2.AuthorizationCodeTokenRequest;
 import com.google.api.client.auth.oauth2.AuthorizationRequestUrl;
 import com.google.api.client.auth.oauth2.BearerToken;
-import com.google.api.client.auth.oauth2.RefreshTokenRequest;
 import com.google.api.client.auth.oauth2.TokenRequest;
 import com.google.api.client.auth.openidconnect.IdToken;
 import com.google.api.client.auth.openidconnect.IdTokenResponse;
-import com.google.api.client.auth.openidconnect.IdTokenVerifier;
-import com.google.api.client.extensions.android.http.AndroidHttp;
-import com.google.api.client.http.BasicAuthentication;
 import com.google.api.client.http.GenericUrl;
-import com.google.api.client.json.gson.GsonFactory;
-import com.google.gson.Gson;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * A layer of syntactic sugar around the google-oauth-java-client library to simplify using OpenID
- * Access on Android.
+ * Access.
  *
  * Currently this helper class is fairly limited. It's suitable for our use case and pretty much
  * nothing else. Pull requests are appreciated!
@@ -37,6 +29,17 @@ import java.util.Map;
  */
 public class OIDCUtils {
 
+    /**
+     * Returns the provider's endpoints, resolved from its discovery document if the default client
+     * has discovery enabled.
+     *
+     * Needs to be run on a separate thread the first time, since the document may have to be
+     * fetched.
+     */
+    public static ProviderConfiguration getProviderConfiguration() {
+        return OIDCClient.getDefault().getProviderConfiguration();
+    }
+
     /**
      * Generates an URL to the Authorization Endpoint. The user can then authenticate themselves,
      * authorise this app and obtain an Authorization Token.
@@ -50,15 +53,17 @@ public class OIDCUtils {
 
         List<String> scopesList = Arrays.asList(scopes);
 
+        OIDCClient client = OIDCClient.getDefault();
+
         AuthorizationCodeFlow flow = new AuthorizationCodeFlow.Builder(
                 BearerToken.authorizationHeaderAccessMethod(),
-                AndroidHttp.newCompatibleTransport(),
-                new GsonFactory(),
+                client.getTransport(),
+                client.getJsonFactory(),
                 new GenericUrl(tokenServerUrl),
-                new BasicAuthentication(clientId, clientSecret),
+                client.getClientAuthentication(clientId, clientSecret),
                 clientId,
                 authorizationServerUrl
-        ).build();
+        ).setRequestInitializer(client.getRequestInitializer()).build();
 
         // Generate the URL that we'll modify a bit to comply with the spec
         AuthorizationCodeRequestUrl authUrl = flow.newAuthorizationUrl();
@@ -221,15 +226,17 @@ public class OIDCUtils {
                                                 String clientId, String clientSecret,
                                                 String authToken) throws IOException {
 
+        OIDCClient client = OIDCClient.getDefault();
+
         AuthorizationCodeFlow flow = new AuthorizationCodeFlow.Builder(
                 BearerToken.authorizationHeaderAccessMethod(),
-                AndroidHttp.newCompatibleTransport(),
-                new GsonFactory(),
+                client.getTransport(),
+                client.getJsonFactory(),
                 new GenericUrl(tokenServerUrl),
-                new BasicAuthentication(clientId, clientSecret),
+                client.getClientAuthentication(clientId, clientSecret),
                 clientId,
                 authorizationServerUrl
-        ).build();
+        ).setRequestInitializer(client.getRequestInitializer()).build();
 
         TokenRequest request = flow.newTokenRequest(authToken);
 
@@ -254,7 +261,7 @@ public class OIDCUtils {
      * The Authorization Server can also authenticate the Client before exchanging the Authorization
      * Code for an Access Token.
      *
-     * Needs to be run on a separate thread.
+     * Needs to be run on a separate thread, or use {@link #requestTokensAsync} instead.
      *
      * @throws IOException
      */
@@ -262,26 +269,24 @@ public class OIDCUtils {
                                                 String clientId, String clientSecret,
                                                 String authCode) throws IOException {
 
-        AuthorizationCodeTokenRequest request = new AuthorizationCodeTokenRequest(
-                AndroidHttp.newCompatibleTransport(),
-                new GsonFactory(),
-                new GenericUrl(tokenServerUrl),
-                authCode
-        );
-        request.set("redirect_uri", redirectUrl);
-
-        if (!TextUtils.isEmpty(clientSecret)) {
-            request.setClientAuthentication(new BasicAuthentication(clientId, clientSecret));
-        }
+        return OIDCClient.getDefault().requestTokens(tokenServerUrl, redirectUrl, clientId,
+                clientSecret, authCode);
+    }
 
-        IdTokenResponse response = IdTokenResponse.execute(request);
-        String idToken = response.getIdToken();
+    /**
+     * Exchanges an Authorization Code for tokens without blocking the calling thread. The call
+     * runs on the default client's executor.
+     *
+     * @param callback notified of the result, may be null
+     * @see #requestTokens(String, String, String, String, String)
+     */
+    public static Future<IdTokenResponse> requestTokensAsync(String tokenServerUrl,
+                                                             String redirectUrl, String clientId,
+                                                             String clientSecret, String authCode,
+                                                             OIDCCallback<IdTokenResponse> callback) {
 
-        if (isValidIdToken(clientId, idToken)) {
-            return response;
-        } else {
-            throw new IOException("Invalid ID token returned.");
-        }
+        return OIDCClient.getDefault().requestTokensAsync(tokenServerUrl, redirectUrl, clientId,
+                clientSecret, authCode, callback);
     }
 
     /**
@@ -294,50 +299,82 @@ public class OIDCUtils {
                                                 String clientSecret, String[] scopes,
                                                 String refreshToken) throws IOException {
 
-        List<String> scopesList = Arrays.asList(scopes);
-
-        RefreshTokenRequest request = new RefreshTokenRequest(
-                AndroidHttp.newCompatibleTransport(),
-                new GsonFactory(),
-                new GenericUrl(tokenServerUrl),
-                refreshToken
-        );
+        return OIDCClient.getDefault().refreshTokens(tokenServerUrl, clientId, clientSecret,
+                scopes, refreshToken);
+    }
 
-        if (!TextUtils.isEmpty(clientSecret)) {
-            request.setClientAuthentication(new BasicAuthentication(clientId, clientSecret));
-        }
-        request.setScopes(scopesList);
+    /**
+     * Exchanges a Refresh Token for new tokens without blocking the calling thread. The call runs
+     * on the default client's executor.
+     *
+     * @param callback notified of the result, may be null
+     * @see #refreshTokens(String, String, String, String[], String)
+     */
+    public static Future<IdTokenResponse> refreshTokensAsync(String tokenServerUrl,
+                                                             String clientId, String clientSecret,
+                                                             String[] scopes, String refreshToken,
+                                                             OIDCCallback<IdTokenResponse> callback) {
 
-        return IdTokenResponse.execute(request);
+        return OIDCClient.getDefault().refreshTokensAsync(tokenServerUrl, clientId, clientSecret,
+                scopes, refreshToken, callback);
     }
 
     /**
-     * Verifies an ID Token.
-     * TODO: Look into verifying the token issuer as well?
+     * Verifies an ID Token. The signature and issuer are verified too if the default client knows
+     * the provider's key set.
      */
     public static boolean isValidIdToken(String clientId, String tokenString) throws IOException {
+        return OIDCClient.getDefault().isValidIdToken(clientId, tokenString);
+    }
 
-        List<String> audiences = Arrays.asList(clientId);
-        IdTokenVerifier verifier = new IdTokenVerifier.Builder().setAudience(audiences).build();
+    /**
+     * Parses an ID Token without verifying it, e.g. for reading its claims. Tokens are cached, so
+     * parsing the same token again is cheap. Don't modify the returned token.
+     */
+    public static IdToken parseIdToken(String tokenString) throws IOException {
+        return OIDCClient.getDefault().parseIdToken(tokenString);
+    }
+
+    /**
+     * Checks the `exp` claim of an ID Token without verifying the token. Returns true if the token
+     * has expired or will expire within the given number of seconds. Tokens that can't be parsed
+     * are left for the server to judge.
+     */
+    public static boolean isIdTokenExpired(String tokenString, long skewSeconds) {
+        if (tokenString == null) {
+            return false;
+        }
 
-        IdToken idToken = IdToken.parse(new GsonFactory(), tokenString);
+        try {
+            Long expirationTimeSeconds = parseIdToken(tokenString).getPayload()
+                    .getExpirationTimeSeconds();
 
-        return verifier.verify(idToken);
+            return expirationTimeSeconds != null && expirationTimeSeconds * 1000
+                    <= System.currentTimeMillis() + skewSeconds * 1000;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
     }
 
     /**
-     * Gets user information from the UserInfo endpoint.
+     * Gets user information from the UserInfo endpoint. The claims are cached per subject, so
+     * repeated calls are served from memory or revalidated with a conditional request.
      */
     public static Map getUserInfo(String userInfoUrl, String idToken) throws IOException {
-        HttpRequest request = new HttpRequest(userInfoUrl, HttpRequest.METHOD_GET);
-        request = prepareApiRequest(request, idToken);
+        return OIDCClient.getDefault().getUserInfo(userInfoUrl, idToken);
+    }
 
-        if (request.ok()) {
-            String jsonString = request.body();
-            return new Gson().fromJson(jsonString, Map.class);
-        } else {
-            throw new IOException(request.message());
-        }
+    /**
+     * Gets user information without blocking the calling thread. The call runs on the default
+     * client's executor.
+     *
+     * @param callback notified of the result, may be null
+     * @see #getUserInfo(String, String)
+     */
+    public static Future<Map> getUserInfoAsync(String userInfoUrl, String idToken,
+                                               OIDCCallback<Map> callback) {
+
+        return OIDCClient.getDefault().getUserInfoAsync(userInfoUrl, idToken, callback);
     }
 
     /**
@@ -351,4 +388,15 @@ public class OIDCUtils {
         return request.authorization("Bearer " + idToken).acceptJson();
     }
 
+    /**
+     * Prepares an arbitrary API request made with google-http-client by injecting an ID Token into
+     * it, e.g. one built on a request factory from {@link OIDCClient.Builder#setTransport}.
+     */
+    public static com.google.api.client.http.HttpRequest prepareApiRequest(
+            com.google.api.client.http.HttpRequest request, String idToken) {
+
+        request.getHeaders().setAuthorization("Bearer " + idToken).setAccept("application/json");
+        return request;
+    }
+
 }
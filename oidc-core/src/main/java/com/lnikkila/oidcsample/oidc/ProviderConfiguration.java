@@ -0,0 +1,87 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+/**
+ * The subset of the OpenID Provider Metadata that we use, as served from the provider's
+ * `/.well-known/openid-configuration`.
+ *
+ * @see <a href="http://openid.net/specs/openid-connect-discovery-1_0.html#ProviderMetadata">Provider Metadata</a>
+ *
+ * @author Camilo Montes
+ */
+public class ProviderConfiguration extends GenericJson {
+
+    @Key
+    private String issuer;
+
+    @Key("authorization_endpoint")
+    private String authorizationEndpoint;
+
+    @Key("token_endpoint")
+    private String tokenEndpoint;
+
+    @Key("userinfo_endpoint")
+    private String userInfoEndpoint;
+
+    @Key("jwks_uri")
+    private String jwksUri;
+
+    // Not part of the spec, these are only used when the document is persisted
+    @Key("cached_etag")
+    String etag;
+
+    @Key("cached_at")
+    Long fetchedAt;
+
+    @Key("cached_max_age")
+    Long maxAgeSeconds;
+
+    public ProviderConfiguration() {}
+
+    public ProviderConfiguration(String issuer, String authorizationEndpoint,
+                                 String tokenEndpoint, String userInfoEndpoint, String jwksUri) {
+        this.issuer = issuer;
+        this.authorizationEndpoint = authorizationEndpoint;
+        this.tokenEndpoint = tokenEndpoint;
+        this.userInfoEndpoint = userInfoEndpoint;
+        this.jwksUri = jwksUri;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    public String getTokenEndpoint() {
+        return tokenEndpoint;
+    }
+
+    public String getUserInfoEndpoint() {
+        return userInfoEndpoint;
+    }
+
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    /**
+     * Fills in whatever the provider left out from the given defaults.
+     */
+    void fillMissing(ProviderConfiguration defaults) {
+        if (defaults == null) {
+            return;
+        }
+
+        if (issuer == null) issuer = defaults.issuer;
+        if (authorizationEndpoint == null) authorizationEndpoint = defaults.authorizationEndpoint;
+        if (tokenEndpoint == null) tokenEndpoint = defaults.tokenEndpoint;
+        if (userInfoEndpoint == null) userInfoEndpoint = defaults.userInfoEndpoint;
+        if (jwksUri == null) jwksUri = defaults.jwksUri;
+    }
+
+}
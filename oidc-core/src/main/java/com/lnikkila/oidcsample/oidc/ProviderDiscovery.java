@@ -0,0 +1,280 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Resolves the provider's endpoints from its discovery document, so that endpoint changes don't
+ * need a new app release.
+ *
+ * The document is cached in memory and on disk. Once we have a copy, it's returned right away and
+ * revalidated in the background with `If-None-Match` when it gets older than its `max-age`, so
+ * startup never has to wait for the network. Only the very first launch fetches the document
+ * synchronously, and if that fails, we fall back to the statically configured endpoints.
+ *
+ * A document for another issuer than the configured one is rejected, as the spec requires. Failed
+ * fetches are retried with an exponential backoff, so an outage doesn't turn into a stream of
+ * requests to the discovery endpoint.
+ *
+ * @see <a href="http://openid.net/specs/openid-connect-discovery-1_0.html">OpenID Connect Discovery</a>
+ *
+ * @author Camilo Montes
+ */
+public class ProviderDiscovery {
+
+    public static final String WELL_KNOWN_PATH = "/.well-known/openid-configuration";
+
+    public static final long DEFAULT_MAX_AGE_SECONDS = 60 * 60;
+
+    public static final int INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    public static final int MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    private final String discoveryUrl;
+    private final String issuer;
+    private final File cacheFile;
+    private final HttpRequestFactory requestFactory;
+    private final JsonFactory jsonFactory;
+    private final ProviderConfiguration defaults;
+
+    private final Executor executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ProviderDiscovery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicBoolean isRevalidating = new AtomicBoolean();
+
+    private final BackOff backOff = new ExponentialBackOff.Builder()
+            .setInitialIntervalMillis(INITIAL_BACKOFF_MILLIS)
+            .setMaxIntervalMillis(MAX_BACKOFF_MILLIS)
+            .setMaxElapsedTimeMillis(Integer.MAX_VALUE)
+            .build();
+
+    private volatile ProviderConfiguration configuration;
+
+    // After a failed fetch, we don't try again before this time
+    private volatile long retryAt;
+
+    /**
+     * @param issuer the issuer that the document has to be for, or null to accept any
+     * @param cacheFile where the document is persisted, or null to keep it only in memory
+     * @param defaults used for anything the provider doesn't tell us, and for everything if the
+     *                 document can't be fetched at all
+     */
+    public ProviderDiscovery(String discoveryUrl, String issuer, File cacheFile,
+                             HttpRequestFactory requestFactory, JsonFactory jsonFactory,
+                             ProviderConfiguration defaults) {
+
+        this.discoveryUrl = discoveryUrl;
+        this.issuer = issuer;
+        this.cacheFile = cacheFile;
+        this.requestFactory = requestFactory;
+        this.jsonFactory = jsonFactory;
+        this.defaults = defaults;
+    }
+
+    /**
+     * Returns the provider configuration. Only blocks if we've never managed to fetch the document
+     * before, so the first call should be made on a separate thread.
+     */
+    public ProviderConfiguration getConfiguration() {
+        ProviderConfiguration current = configuration;
+
+        if (current == null) {
+            current = load();
+        }
+
+        if (isStale(current) && System.currentTimeMillis() >= retryAt) {
+            revalidateInBackground();
+        }
+
+        return current;
+    }
+
+    /**
+     * Revalidates the document in the background, unless that's already happening.
+     */
+    public void revalidateInBackground() {
+        if (!isRevalidating.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(configuration);
+                } catch (IOException e) {
+                    // Keep using what we have, we'll try again once we've backed off
+                    recordFailure();
+                } finally {
+                    isRevalidating.set(false);
+                }
+            }
+        });
+    }
+
+    private synchronized ProviderConfiguration load() {
+        if (configuration != null) {
+            return configuration;
+        }
+
+        ProviderConfiguration cached = readFromDisk();
+
+        if (cached != null) {
+            configuration = cached;
+            return cached;
+        }
+
+        // We've never seen the document, so there's nothing to do but to wait for it
+        try {
+            return fetch(null);
+        } catch (IOException e) {
+            ProviderConfiguration fallback = new ProviderConfiguration();
+            fallback.fillMissing(defaults);
+
+            // Remember the fallback for this session, but make it stale so that we keep trying
+            fallback.fetchedAt = 0L;
+            configuration = fallback;
+            recordFailure();
+
+            return fallback;
+        }
+    }
+
+    /**
+     * Fetches the document, conditionally if we already have a copy with an ETag.
+     */
+    private ProviderConfiguration fetch(ProviderConfiguration current) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(discoveryUrl));
+        request.setThrowExceptionOnExecuteError(false);
+
+        if (current != null && current.etag != null) {
+            request.getHeaders().setIfNoneMatch(current.etag);
+        }
+
+        HttpResponse response = request.execute();
+        int statusCode = response.getStatusCode();
+        long now = System.currentTimeMillis();
+        long maxAgeSeconds = CacheControl.getMaxAgeSeconds(response.getHeaders().getCacheControl());
+
+        ProviderConfiguration next;
+
+        if (statusCode == HTTP_NOT_MODIFIED && current != null) {
+            response.ignore();
+
+            next = (ProviderConfiguration) current.clone();
+        } else if (statusCode == HTTP_OK) {
+            next = jsonFactory.fromString(response.parseAsString(), ProviderConfiguration.class);
+
+            // Otherwise anyone who can tamper with the document could point us at their endpoints
+            if (issuer != null && !issuer.equals(next.getIssuer())) {
+                throw new IOException(String.format(
+                        "Discovery document is for issuer '%s' instead of '%s'.",
+                        next.getIssuer(), issuer));
+            }
+
+            next.fillMissing(defaults);
+            next.etag = response.getHeaders().getETag();
+        } else {
+            response.ignore();
+            throw new IOException("Could not fetch discovery document: " + statusCode);
+        }
+
+        // A 304 without caching headers keeps the freshness lifetime we already had
+        if (maxAgeSeconds < 0) {
+            maxAgeSeconds = next.maxAgeSeconds != null
+                    ? next.maxAgeSeconds : DEFAULT_MAX_AGE_SECONDS;
+        }
+
+        next.fetchedAt = now;
+        next.maxAgeSeconds = maxAgeSeconds;
+
+        configuration = next;
+        writeToDisk(next);
+        recordSuccess();
+
+        return next;
+    }
+
+    private synchronized void recordSuccess() {
+        retryAt = 0;
+
+        try {
+            backOff.reset();
+        } catch (IOException e) {
+            // ExponentialBackOff doesn't actually throw
+        }
+    }
+
+    private synchronized void recordFailure() {
+        long backoffMillis;
+
+        try {
+            backoffMillis = backOff.nextBackOffMillis();
+        } catch (IOException e) {
+            // ExponentialBackOff doesn't actually throw
+            backoffMillis = MAX_BACKOFF_MILLIS;
+        }
+
+        retryAt = System.currentTimeMillis() + backoffMillis;
+    }
+
+    private static boolean isStale(ProviderConfiguration configuration) {
+        long fetchedAt = configuration.fetchedAt != null ? configuration.fetchedAt : 0;
+        long maxAgeSeconds = configuration.maxAgeSeconds != null ? configuration.maxAgeSeconds : 0;
+
+        return System.currentTimeMillis() >= fetchedAt + maxAgeSeconds * 1000;
+    }
+
+    private ProviderConfiguration readFromDisk() {
+        if (cacheFile != null) {
+            try {
+                String json = CacheFiles.read(cacheFile);
+
+                if (json != null) {
+                    ProviderConfiguration cached = jsonFactory.fromString(json,
+                            ProviderConfiguration.class);
+
+                    // Left over from before the issuer was changed
+                    if (issuer == null || issuer.equals(cached.getIssuer())) {
+                        return cached;
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // A broken cache is no worse than an empty one
+            }
+        }
+
+        return null;
+    }
+
+    private void writeToDisk(ProviderConfiguration configuration) {
+        if (cacheFile != null) {
+            try {
+                CacheFiles.write(cacheFile, jsonFactory.toString(configuration));
+            } catch (IOException e) {
+                // We'll just have to fetch the document again on the next launch
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.lnikkila.oidcsample.oidc;
+
+/**
+ * Tells whether a URL that the login page navigates to is our Redirect URI.
+ *
+ * Most navigations are intermediate pages of the provider, so the check is a plain prefix
+ * comparison that doesn't parse or allocate anything. Only a URL that matches needs to be parsed
+ * for its parameters.
+ *
+ * An empty path and `/` are the same thing, so e.g. `https://host` matches `https://host/?code=...`,
+ * which is what the WebView navigates to.
+ *
+ * @author Camilo Montes
+ */
+public class RedirectMatcher {
+
+    private final String redirectUrl;
+
+    // The Redirect URI without its path if that's empty or `/`, otherwise null
+    private final String origin;
+
+    public RedirectMatcher(String redirectUrl) {
+        this.redirectUrl = redirectUrl;
+        this.origin = getOrigin(redirectUrl);
+    }
+
+    /**
+     * Whether the URL is the Redirect URI, optionally followed by a query or a fragment.
+     */
+    public boolean matches(String url) {
+        if (url == null) {
+            return false;
+        }
+
+        if (origin != null) {
+            return matchesOrigin(url);
+        }
+
+        if (!url.startsWith(redirectUrl)) {
+            return false;
+        }
+
+        if (url.length() == redirectUrl.length()) {
+            return true;
+        }
+
+        // Don't mistake e.g. `app://callback-page` for `app://callback`
+        char next = url.charAt(redirectUrl.length());
+        return next == '?' || next == '#' || redirectUrl.endsWith("/");
+    }
+
+    private boolean matchesOrigin(String url) {
+        if (!url.startsWith(origin)) {
+            return false;
+        }
+
+        int end = origin.length();
+
+        if (isQueryOrFragment(url, end)) {
+            return true;
+        }
+
+        if (url.charAt(end) != '/') {
+            return false;
+        }
+
+        // Like any Redirect URI that ends with a slash, `/` matches everything below it
+        return redirectUrl.endsWith("/") || isQueryOrFragment(url, end + 1);
+    }
+
+    /**
+     * Whether the URL ends at the given index, or continues with a query or a fragment.
+     */
+    private static boolean isQueryOrFragment(String url, int index) {
+        if (index == url.length()) {
+            return true;
+        }
+
+        char next = url.charAt(index);
+        return next == '?' || next == '#';
+    }
+
+    private static String getOrigin(String redirectUrl) {
+        int schemeEnd = redirectUrl.indexOf("://");
+
+        if (schemeEnd < 0) {
+            return null;
+        }
+
+        int pathStart = redirectUrl.indexOf('/', schemeEnd + 3);
+
+        if (pathStart < 0) {
+            return redirectUrl;
+        }
+
+        return pathStart == redirectUrl.length() - 1 ? redirectUrl.substring(0, pathStart) : null;
+    }
+
+}
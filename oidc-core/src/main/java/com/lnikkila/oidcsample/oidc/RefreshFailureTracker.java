@@ -0,0 +1,405 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of failed token refreshes per issuer, so that we stop hammering a Token Endpoint
+ * that is already struggling.
+ *
+ * Every refresh asks {@link #checkAllowed} first and then reports how it went. Only failures that
+ * say something about the endpoint's health count, i.e. network errors, 5xx responses and 429s.
+ * An `invalid_grant` is a perfectly healthy answer.
+ *
+ * - A failed refresh of an account is remembered for a short while, and refreshing the same
+ *   account again during that time fails straight away with the same error.
+ * - After a number of failures in a row, the circuit opens and every refresh for the issuer fails
+ *   straight away. Any answer from the endpoint, even an error, breaks the run. It stays open for an exponentially growing, jittered backoff, or for as long as
+ *   the provider asked in `Retry-After` if that's longer.
+ * - Once the backoff is over, a single refresh is let through to probe the endpoint. If it
+ *   succeeds, the circuit closes again, otherwise it opens for the next, longer backoff.
+ *
+ * @author Camilo Montes
+ */
+public class RefreshFailureTracker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final int DEFAULT_INITIAL_BACKOFF_MILLIS = 5 * 1000;
+    public static final int DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    public static final long DEFAULT_NEGATIVE_CACHE_MILLIS = 10 * 1000;
+
+    // Spreads the backoff out by up to this fraction either way, so that clients that failed at
+    // the same time don't all come back at the same time
+    private static final double RANDOMIZATION_FACTOR = 0.5;
+
+    public enum CircuitState {
+        /** Refreshes go through. */
+        CLOSED,
+        /** Refreshes fail straight away until the backoff is over. */
+        OPEN,
+        /** A single refresh is probing whether the endpoint has recovered. */
+        HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of refreshing while the circuit of the issuer is open.
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAt;
+
+        CircuitOpenException(String issuer, long retryAt) {
+            super(String.format("Not refreshing tokens with %s until %d, its Token Endpoint is " +
+                    "failing.", issuer, retryAt));
+            this.retryAt = retryAt;
+        }
+
+        /**
+         * When the next refresh will be let through, in milliseconds.
+         */
+        public long getRetryAt() {
+            return retryAt;
+        }
+
+    }
+
+    /**
+     * Thrown instead of refreshing an account whose last refresh failed only a moment ago. The
+     * cause is that failure.
+     */
+    public static class RecentFailureException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAt;
+
+        RecentFailureException(IOException cause, long retryAt) {
+            super("Refreshing the tokens failed a moment ago.", cause);
+            this.retryAt = retryAt;
+        }
+
+        /**
+         * When the account's next refresh will be let through, in milliseconds.
+         */
+        public long getRetryAt() {
+            return retryAt;
+        }
+
+    }
+
+    /**
+     * The state of an issuer's circuit at some point in time.
+     */
+    public static class Snapshot {
+
+        public final String issuer;
+        public final CircuitState state;
+        public final int consecutiveFailures;
+        public final long failureCount;
+
+        /** Refreshes that failed straight away, without a request being made. */
+        public final long rejectedCount;
+
+        /** When the circuit lets the next refresh through, or 0 if it's closed. */
+        public final long retryAt;
+
+        /** The most recent failure, or null if there hasn't been one. */
+        public final IOException lastFailure;
+
+        Snapshot(String issuer, CircuitState state, int consecutiveFailures, long failureCount,
+                 long rejectedCount, long retryAt, IOException lastFailure) {
+
+            this.issuer = issuer;
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.failureCount = failureCount;
+            this.rejectedCount = rejectedCount;
+            this.retryAt = retryAt;
+            this.lastFailure = lastFailure;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s consecutive failures=%d failures=%d rejected=%d " +
+                    "retry at=%d last failure=%s", issuer, state, consecutiveFailures,
+                    failureCount, rejectedCount, retryAt,
+                    lastFailure != null ? lastFailure.getMessage() : null);
+        }
+
+    }
+
+    private final int failureThreshold;
+    private final int initialBackoffMillis;
+    private final int maxBackoffMillis;
+    private final long negativeCacheMillis;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public RefreshFailureTracker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_NEGATIVE_CACHE_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold how many failures in a row open the circuit
+     * @param negativeCacheMillis how long a failed refresh of an account is remembered
+     */
+    public RefreshFailureTracker(int failureThreshold, int initialBackoffMillis,
+                                 int maxBackoffMillis, long negativeCacheMillis) {
+
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.negativeCacheMillis = negativeCacheMillis;
+    }
+
+    /**
+     * Throws if refreshing the account's tokens with the issuer should fail straight away, either
+     * because the account's last refresh failed only a moment ago or because the circuit is open.
+     * Otherwise the caller should go ahead and report the result afterwards.
+     */
+    public void checkAllowed(String issuer, String account) throws IOException {
+        getCircuit(issuer).checkAllowed(account);
+    }
+
+    public void recordSuccess(String issuer, String account) {
+        getCircuit(issuer).recordSuccess(account);
+    }
+
+    public void recordFailure(String issuer, String account, IOException error) {
+        getCircuit(issuer).recordFailure(account, error);
+    }
+
+    public Snapshot getSnapshot(String issuer) {
+        return getCircuit(issuer).getSnapshot();
+    }
+
+    public List<Snapshot> getSnapshots() {
+        List<Snapshot> snapshots = new ArrayList<>();
+
+        for (Circuit circuit : circuits.values()) {
+            snapshots.add(circuit.getSnapshot());
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Closes every circuit and forgets every failure, e.g. when the network comes back.
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    /**
+     * Whether the failure says that the Token Endpoint is unhealthy, as opposed to the request
+     * being rejected on its merits.
+     */
+    public static boolean isEndpointFailure(IOException error) {
+        // We didn't even make a request
+        if (error instanceof CircuitOpenException || error instanceof RecentFailureException) {
+            return false;
+        }
+
+        // We gave up waiting ourselves, which says nothing about the endpoint. Timeouts do.
+        if (error instanceof InterruptedIOException && !(error instanceof SocketTimeoutException)) {
+            return false;
+        }
+
+        if (error instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) error).getStatusCode();
+            return statusCode >= 500 || statusCode == 429;
+        }
+
+        // Couldn't connect, timed out, or the like
+        return true;
+    }
+
+    /**
+     * Returns how long the provider asked us to wait in the `Retry-After` header, in
+     * milliseconds, or 0 if it didn't.
+     */
+    static long getRetryAfterMillis(IOException error) {
+        if (!(error instanceof HttpResponseException)) {
+            return 0;
+        }
+
+        String retryAfter = ((HttpResponseException) error).getHeaders()
+                .getFirstHeaderStringValue("Retry-After");
+
+        try {
+            // HTTP dates are allowed too, but providers send seconds
+            return retryAfter != null ? Long.parseLong(retryAfter.trim()) * 1000 : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Circuit getCircuit(String issuer) {
+        Circuit circuit = circuits.get(issuer);
+
+        if (circuit == null) {
+            Circuit created = new Circuit(issuer);
+            circuit = circuits.putIfAbsent(issuer, created);
+
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+
+        return circuit;
+    }
+
+    private class Circuit {
+
+        final String issuer;
+
+        final BackOff backOff = new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis(initialBackoffMillis)
+                .setMaxIntervalMillis(maxBackoffMillis)
+                .setRandomizationFactor(RANDOMIZATION_FACTOR)
+                .setMaxElapsedTimeMillis(Integer.MAX_VALUE)
+                .build();
+
+        // Account -> its last failure, until it expires
+        final Map<String, CachedFailure> recentFailures = new ConcurrentHashMap<>();
+
+        CircuitState state = CircuitState.CLOSED;
+        int consecutiveFailures;
+        long failureCount;
+        long rejectedCount;
+        long retryAt;
+        IOException lastFailure;
+
+        Circuit(String issuer) {
+            this.issuer = issuer;
+        }
+
+        void checkAllowed(String account) throws IOException {
+            long now = System.currentTimeMillis();
+            CachedFailure cached = recentFailures.get(account);
+
+            if (cached != null) {
+                if (cached.expiresAt > now) {
+                    synchronized (this) {
+                        rejectedCount++;
+                    }
+
+                    throw new RecentFailureException(cached.error, cached.expiresAt);
+                }
+
+                recentFailures.remove(account);
+            }
+
+            synchronized (this) {
+                if (state != CircuitState.CLOSED && now >= retryAt) {
+                    // Let this one through to see if the endpoint has recovered. If it never
+                    // reports back, another one is let through after the initial backoff.
+                    state = CircuitState.HALF_OPEN;
+                    retryAt = now + initialBackoffMillis;
+                    return;
+                }
+
+                if (state != CircuitState.CLOSED) {
+                    rejectedCount++;
+                    throw new CircuitOpenException(issuer, retryAt);
+                }
+            }
+        }
+
+        synchronized void recordSuccess(String account) {
+            recentFailures.remove(account);
+            close();
+        }
+
+        synchronized void recordFailure(String account, IOException error) {
+            if (!isEndpointFailure(error)) {
+                // If the endpoint answered, it's healthy enough and the run of failures is over,
+                // just like after a successful refresh. Failing fast or giving up ourselves says
+                // nothing either way.
+                if (error instanceof HttpResponseException) {
+                    close();
+                }
+
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            consecutiveFailures++;
+            failureCount++;
+            lastFailure = error;
+
+            recentFailures.put(account, new CachedFailure(error, now + negativeCacheMillis));
+            pruneRecentFailures(now);
+
+            if (state == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                long backoffMillis;
+
+                try {
+                    backoffMillis = backOff.nextBackOffMillis();
+                } catch (IOException e) {
+                    // ExponentialBackOff doesn't actually throw
+                    backoffMillis = maxBackoffMillis;
+                }
+
+                state = CircuitState.OPEN;
+                retryAt = now + Math.max(backoffMillis, getRetryAfterMillis(error));
+            }
+        }
+
+        synchronized Snapshot getSnapshot() {
+            return new Snapshot(issuer, state, consecutiveFailures, failureCount, rejectedCount,
+                    state == CircuitState.CLOSED ? 0 : retryAt, lastFailure);
+        }
+
+        private void close() {
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+            retryAt = 0;
+
+            try {
+                backOff.reset();
+            } catch (IOException e) {
+                // ExponentialBackOff doesn't actually throw
+            }
+        }
+
+        private void pruneRecentFailures(long now) {
+            Iterator<CachedFailure> iterator = recentFailures.values().iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt <= now) {
+                    iterator.remove();
+                }
+            }
+        }
+
+    }
+
+    private static class CachedFailure {
+
+        final IOException error;
+        final long expiresAt;
+
+        CachedFailure(IOException error, long expiresAt) {
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
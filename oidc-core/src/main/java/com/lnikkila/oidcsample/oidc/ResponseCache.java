@@ -0,0 +1,150 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU cache of parsed API responses, so that the same GET made again within
+ * its `Cache-Control: max-age` doesn't go to the network or get parsed again.
+ *
+ * Every entry belongs to a scope, i.e. the account it was fetched with, and is only ever served
+ * within that scope. Responses to different accounts can differ even when the URL is the same.
+ * Entries are also keyed by the type the response was bound to, since the same JSON bound to a
+ * different type is a different object.
+ *
+ * The cached objects are handed out as they are, to every caller, so they must be treated as
+ * read-only.
+ *
+ * @author Camilo Montes
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final int maxSize;
+    private final LinkedHashMap<String, CachedResponse> entries;
+
+    public ResponseCache(final int maxSize) {
+        this.maxSize = maxSize;
+
+        // Access order makes this an LRU
+        entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxSize || eldest.getValue().isExpired(System.currentTimeMillis());
+            }
+        };
+    }
+
+    /**
+     * Returns the response that was fetched from the URL within the scope and bound to the type,
+     * or null if there isn't one or it's no longer fresh.
+     */
+    public synchronized Object get(String scope, String url, Type type) {
+        String key = getKey(scope, url, type);
+        CachedResponse entry = entries.get(key);
+
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Remembers a response for as long as it stays fresh. Responses that are already stale, e.g.
+     * ones without a max-age, aren't cached.
+     */
+    public void put(String scope, String url, Type type, Object value, long freshnessMillis) {
+        if (freshnessMillis <= 0 || maxSize <= 0) {
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + freshnessMillis;
+
+        synchronized (this) {
+            entries.put(getKey(scope, url, type), new CachedResponse(scope, value, expiresAt));
+        }
+    }
+
+    /**
+     * Forgets every response of a scope, e.g. when its account is removed.
+     */
+    public synchronized void remove(String scope) {
+        Iterator<CachedResponse> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().scope.equals(scope)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every response whose scope isn't one of the given ones.
+     */
+    public synchronized void retainScopes(Collection<String> scopes) {
+        Iterator<CachedResponse> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (!scopes.contains(iterator.next().scope)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns how long a response with the given `Cache-Control` and `Age` headers stays fresh,
+     * in milliseconds, or 0 if it mustn't be reused at all.
+     */
+    public static long getFreshnessMillis(String cacheControl, Long ageSeconds) {
+        long maxAgeSeconds = CacheControl.getMaxAgeSeconds(cacheControl);
+
+        if (maxAgeSeconds <= 0) {
+            return 0;
+        }
+
+        // A response that sat in a shared cache on the way has already used up part of its max-age
+        long remainingSeconds = maxAgeSeconds - (ageSeconds != null ? ageSeconds : 0);
+        return Math.max(remainingSeconds, 0) * 1000;
+    }
+
+    private static String getKey(String scope, String url, Type type) {
+        return scope + ' ' + type + ' ' + url;
+    }
+
+    private static class CachedResponse {
+
+        final String scope;
+        final Object value;
+        final long expiresAt;
+
+        CachedResponse(String scope, Object value, long expiresAt) {
+            this.scope = scope;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls that share the same key. The first caller runs the call and everyone
+ * who arrives while it's still in flight waits for that same result instead of starting their own.
+ *
+ * Each key is tracked separately, so calls with different keys never block each other.
+ *
+ * @author Camilo Montes
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call, or joins the one that is already in flight for the same key. Exceptions
+     * thrown by the call are rethrown to every caller.
+     */
+    public V execute(K key, Callable<V> callable) throws IOException {
+        FutureTask<V> task = new FutureTask<>(callable);
+        FutureTask<V> inFlight = calls.putIfAbsent(key, task);
+
+        if (inFlight == null) {
+            // We won, so we get to do the actual work on this thread
+            try {
+                task.run();
+            } finally {
+                calls.remove(key, task);
+            }
+
+            return getResult(task);
+        } else {
+            return getResult(inFlight);
+        }
+    }
+
+    /**
+     * Whether there's a call in flight for the given key.
+     */
+    public boolean isInFlight(K key) {
+        return calls.containsKey(key);
+    }
+
+    private V getResult(FutureTask<V> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a call in flight.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+}
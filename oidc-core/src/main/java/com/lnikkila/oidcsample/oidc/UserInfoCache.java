@@ -0,0 +1,107 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the UserInfo claims of each subject together with the validators (`ETag` and
+ * `Last-Modified`) they were served with.
+ *
+ * Within the max-age, the claims are served without making a request at all. After that, they're
+ * revalidated with a conditional request, and a `304 Not Modified` is served from the cache
+ * without downloading or parsing the document again.
+ *
+ * Stale entries are kept for revalidation, so the cache is bounded instead: once it holds the
+ * claims of too many subjects, the least recently used ones are dropped.
+ *
+ * @author Camilo Montes
+ */
+public class UserInfoCache {
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = 60 * 1000;
+    public static final int DEFAULT_MAX_SIZE = 16;
+
+    private final long maxAgeMillis;
+    private final int maxSize;
+
+    private final LinkedHashMap<String, UserInfoCache.Entry> entries;
+
+    public UserInfoCache(long maxAgeMillis) {
+        this(maxAgeMillis, DEFAULT_MAX_SIZE);
+    }
+
+    public UserInfoCache(long maxAgeMillis, final int maxSize) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxSize = maxSize;
+
+        // Access order makes this an LRU
+        entries = new LinkedHashMap<String, UserInfoCache.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserInfoCache.Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized Entry get(String userInfoUrl, String subject) {
+        return entries.get(getKey(userInfoUrl, subject));
+    }
+
+    public synchronized void put(String userInfoUrl, String subject, Entry entry) {
+        entries.put(getKey(userInfoUrl, subject), entry);
+    }
+
+    /**
+     * Forgets the claims of a subject, e.g. when its account is removed.
+     */
+    public synchronized void remove(String userInfoUrl, String subject) {
+        entries.remove(getKey(userInfoUrl, subject));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Whether the entry can be served without asking the server.
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt < maxAgeMillis;
+    }
+
+    private static String getKey(String userInfoUrl, String subject) {
+        return userInfoUrl + ' ' + subject;
+    }
+
+    public static class Entry {
+
+        final Map claims;
+        final String etag;
+        final String lastModified;
+        final long fetchedAt;
+
+        public Entry(Map claims, String etag, String lastModified, long fetchedAt) {
+            this.claims = claims;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * The same claims and validators, revalidated just now.
+         */
+        Entry revalidated() {
+            return new Entry(claims, etag, lastModified, System.currentTimeMillis());
+        }
+
+    }
+
+}
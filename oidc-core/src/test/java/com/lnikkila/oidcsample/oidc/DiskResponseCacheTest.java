@@ -0,0 +1,114 @@
+package com.lnikkila.oidcsample.oidc;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Checks that responses survive a new cache instance, stay within their account, are evicted
+ * least recently used first once the cache is over its size, and are only served stale for a
+ * while.
+ */
+public class DiskResponseCacheTest extends TestCase {
+
+    private static final String URL = "https://api.example.com/me";
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("responses", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        new DiskResponseCache(directory, Long.MAX_VALUE).clear();
+        directory.delete();
+    }
+
+    public void testEntriesPersistAndAreScoped() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, 64 * 1024);
+        cache.put(newEntry("alice", URL, 100));
+
+        // As if the app had been restarted
+        cache = new DiskResponseCache(directory, 64 * 1024);
+        DiskResponseCache.Entry entry = cache.get("alice", URL);
+
+        assertNotNull(entry);
+        assertEquals(100, entry.body.length);
+        assertEquals("\"v1\"", entry.etag);
+        assertNull(entry.lastModified);
+        assertTrue(entry.hasValidators());
+        assertNull(cache.get("bob", URL));
+
+        cache.retainScopes(Collections.singleton("bob"));
+        assertNull(cache.get("alice", URL));
+        assertEquals(0, cache.getSizeBytes());
+
+        // A broken file counts as a miss and is cleaned up
+        cache.put(newEntry("alice", URL, 100));
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+
+        FileOutputStream out = new FileOutputStream(files[0]);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        assertNull(cache.get("alice", URL));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    public void testLeastRecentlyUsedAreEvicted() {
+        DiskResponseCache cache = new DiskResponseCache(directory, 2500);
+
+        cache.put(newEntry("alice", URL + "/1", 1000));
+        cache.put(newEntry("alice", URL + "/2", 1000));
+
+        // The first one was used more recently, so the second one makes way
+        assertNotNull(cache.get("alice", URL + "/1"));
+        cache.put(newEntry("alice", URL + "/3", 1000));
+
+        assertEquals(2, cache.getEntryCount());
+        assertTrue(cache.getSizeBytes() <= 2500);
+        assertNotNull(cache.get("alice", URL + "/1"));
+        assertNull(cache.get("alice", URL + "/2"));
+        assertNotNull(cache.get("alice", URL + "/3"));
+
+        // Too big to be cached at all
+        cache.put(newEntry("alice", URL + "/4", 5000));
+        assertNull(cache.get("alice", URL + "/4"));
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    public void testStaleEntriesAreServedWithinTheWindowOnly() {
+        long now = System.currentTimeMillis();
+
+        // Went stale a minute ago after being fresh for an hour
+        DiskResponseCache.Entry entry = new DiskResponseCache.Entry("alice", URL, new byte[1],
+                null, "\"v1\"", null, now - 61 * 60 * 1000, now - 60 * 1000);
+
+        assertFalse(entry.isFresh());
+        assertTrue(entry.isServableWhileRevalidating(5 * 60 * 1000));
+        assertFalse(entry.isServableWhileRevalidating(30 * 1000));
+        assertFalse(entry.isServableWhileRevalidating(0));
+
+        // `no-cache` and `max-age=0` responses always have to be revalidated first
+        DiskResponseCache.Entry noCache = entry.revalidated(0);
+
+        assertFalse(noCache.isFresh());
+        assertFalse(noCache.isServableWhileRevalidating(5 * 60 * 1000));
+
+        assertTrue(entry.revalidated(60 * 1000).isFresh());
+    }
+
+    private static DiskResponseCache.Entry newEntry(String scope, String url, int bodyLength) {
+        long now = System.currentTimeMillis();
+        return new DiskResponseCache.Entry(scope, url, new byte[bodyLength], "application/json",
+                "\"v1\"", null, now, now);
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that tokens are evicted least recently used first and once they expire, and that a
+ * verification is only remembered for the client it was made for.
+ */
+public class IdTokenCacheTest extends TestCase {
+
+    private static final String CLIENT_ID = "client";
+
+    public void testLeastRecentlyUsedAreEvicted() {
+        IdTokenCache cache = new IdTokenCache(2, 0);
+        long expiresAt = System.currentTimeMillis() / 1000 + 60 * 60;
+
+        cache.putParsedToken("token-1", newIdToken(expiresAt));
+        cache.putParsedToken("token-2", newIdToken(expiresAt));
+
+        // The first one was used more recently, so the second one makes way
+        assertNotNull(cache.getParsedToken("token-1"));
+        cache.putParsedToken("token-3", newIdToken(expiresAt));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.getParsedToken("token-1"));
+        assertNull(cache.getParsedToken("token-2"));
+        assertNotNull(cache.getParsedToken("token-3"));
+    }
+
+    public void testExpiredTokensAreDropped() throws Exception {
+        IdTokenCache cache = new IdTokenCache(IdTokenCache.DEFAULT_MAX_SIZE, 0);
+        long now = System.currentTimeMillis() / 1000;
+
+        // Already expired, or no telling when it does
+        cache.putParsedToken("expired", newIdToken(now - 1));
+        cache.putParsedToken("no-expiry", newIdToken(null));
+        assertEquals(0, cache.size());
+
+        cache.putParsedToken("token", newIdToken(now + 1));
+        assertNotNull(cache.getParsedToken("token"));
+
+        Thread.sleep(2100);
+
+        assertNull(cache.getParsedToken("token"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testVerificationIsRememberedPerClient() {
+        IdTokenCache cache = new IdTokenCache(IdTokenCache.DEFAULT_MAX_SIZE, 0);
+        IdToken idToken = newIdToken(System.currentTimeMillis() / 1000 + 60 * 60);
+
+        cache.putParsedToken("token", idToken);
+        assertFalse(cache.isVerified("token", CLIENT_ID));
+
+        cache.putVerifiedToken("token", idToken, CLIENT_ID);
+
+        // Parsing the same token again doesn't forget that it was verified
+        cache.putParsedToken("token", idToken);
+
+        assertTrue(cache.isVerified("token", CLIENT_ID));
+        assertFalse(cache.isVerified("token", "other-client"));
+        assertSame(idToken, cache.getParsedToken("token"));
+    }
+
+    private static IdToken newIdToken(Long expirationTimeSeconds) {
+        return new IdToken(new JsonWebSignature.Header(),
+                new IdToken.Payload().setExpirationTimeSeconds(expirationTimeSeconds),
+                new byte[0], new byte[0]);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.lnikkila.oidcsample.oidc;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bucketing of the latency histograms and that everything recorded shows up in a dump.
+ */
+public class InMemoryMetricsTest extends TestCase {
+
+    public void testPercentilesAreBucketUpperBounds() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+
+        // 90 fast requests and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            metrics.recordLatency(OIDCMetrics.ENDPOINT_API, TimeUnit.MILLISECONDS.toNanos(30), true);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            metrics.recordLatency(OIDCMetrics.ENDPOINT_API, TimeUnit.MILLISECONDS.toNanos(700),
+                    false);
+        }
+
+        InMemoryMetrics.Histogram histogram = metrics.getLatency(OIDCMetrics.ENDPOINT_API);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentileMillis(50));
+        assertEquals(50, histogram.getPercentileMillis(90));
+        assertEquals(700, histogram.getPercentileMillis(99));
+        assertEquals(700, histogram.getMaxMillis());
+        assertEquals(97.0, histogram.getMeanMillis(), 0.001);
+        assertEquals(10, metrics.getFailureCount(OIDCMetrics.ENDPOINT_API));
+    }
+
+    public void testDumpListsEverythingRecorded() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+
+        metrics.recordLatency(OIDCMetrics.ENDPOINT_REFRESH, TimeUnit.MILLISECONDS.toNanos(120),
+                true);
+        metrics.recordRetry(OIDCMetrics.ENDPOINT_API, 401);
+        metrics.recordRefreshOutcome("REFRESHED");
+        metrics.recordCacheLookup(OIDCMetrics.CACHE_USERINFO, true);
+        metrics.recordCacheLookup(OIDCMetrics.CACHE_USERINFO, false);
+        metrics.recordCacheLookup(OIDCMetrics.CACHE_ID_TOKEN, false);
+
+        StringWriter out = new StringWriter();
+        metrics.dump("", new PrintWriter(out));
+        String dump = out.toString();
+
+        assertTrue(dump, dump.contains("refresh    count=1 failed=0"));
+        assertTrue(dump, dump.contains("api 401    1"));
+        assertTrue(dump, dump.contains("REFRESHED"));
+        assertTrue(dump, dump.contains("userinfo   hits=1 misses=1 hit rate=50.0%"));
+        assertTrue(dump, dump.contains("id_token   hits=0 misses=1 hit rate=0.0%"));
+
+        metrics.reset();
+        assertNull(metrics.getLatency(OIDCMetrics.ENDPOINT_REFRESH));
+        assertEquals(0, metrics.getRetryCount(OIDCMetrics.ENDPOINT_API, 401));
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Base64;
+
+import junit.framework.TestCase;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * Checks that the key set is kept until it expires, that an unknown key ID makes us refetch it and
+ * that such refetches are rate-limited.
+ */
+public class JwksCacheTest extends TestCase {
+
+    private static final String JWKS_URL = "https://provider.example.com/jwks";
+
+    private final StubTransport transport = new StubTransport();
+
+    public void testKeySetIsRefetchedOnceExpired() throws Exception {
+        // max-age=0 is raised to the minimum refetch interval
+        transport.respond(200, newKeySet("a"), "Cache-Control", "max-age=0");
+
+        JwksCache cache = newCache(60 * 60 * 1000, 500);
+
+        assertNotNull(cache.getKey("a"));
+        assertNotNull(cache.getKey("a"));
+        assertEquals(1, transport.getRequestCount());
+
+        Thread.sleep(600);
+
+        // A failed refetch of an expired set keeps the keys we have
+        transport.respond(500, "{}");
+
+        assertNotNull(cache.getKey("a"));
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    public void testUnknownKeyIdRefetchesAtMostOncePerInterval() throws Exception {
+        transport.respond(200, newKeySet("a"));
+
+        JwksCache cache = newCache(60 * 60 * 1000, 200);
+
+        assertNotNull(cache.getKey("a"));
+
+        // We only just fetched the set, so a made up key ID can't make us fetch it again
+        assertNull(cache.getKey("b"));
+        assertEquals(1, transport.getRequestCount());
+
+        Thread.sleep(250);
+
+        // The provider has rotated its keys in the meantime
+        transport.respond(200, newKeySet("a", "b"));
+
+        PublicKey key = cache.getKey("b");
+
+        assertNotNull(key);
+        assertEquals(2, transport.getRequestCount());
+
+        assertNull(cache.getKey("c"));
+        assertNull(cache.getKey("d"));
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    private JwksCache newCache(long defaultTtlMillis, long minRefetchIntervalMillis) {
+        return new JwksCache(JWKS_URL, null, transport.createRequestFactory(), new GsonFactory(),
+                defaultTtlMillis, minRefetchIntervalMillis);
+    }
+
+    private static String newKeySet(String... keyIds) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+
+        StringBuilder json = new StringBuilder("{\"keys\":[");
+
+        for (int i = 0; i < keyIds.length; i++) {
+            RSAPublicKey key = (RSAPublicKey) generator.generateKeyPair().getPublic();
+
+            json.append(i > 0 ? "," : "")
+                    .append("{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"").append(keyIds[i])
+                    .append("\",\"n\":\"").append(encode(key.getModulus().toByteArray()))
+                    .append("\",\"e\":\"").append(encode(key.getPublicExponent().toByteArray()))
+                    .append("\"}");
+        }
+
+        return json.append("]}").toString();
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeBase64URLSafeString(bytes);
+    }
+
+}
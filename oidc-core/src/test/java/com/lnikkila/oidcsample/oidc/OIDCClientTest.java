@@ -0,0 +1,33 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+
+import junit.framework.TestCase;
+
+/**
+ * Sends a real request through a client with the default transport and checks what it counted.
+ */
+public class OIDCClientTest extends TestCase {
+
+    private static final String[] SCOPES = {"openid", "offline_access"};
+
+    public void testRequestsAreCountedAsTheyreSent() throws Exception {
+        StubTokenServer server = new StubTokenServer(0);
+        OIDCClient client = new OIDCClient.Builder().build();
+
+        try {
+            IdTokenResponse response = client.refreshTokens(server.getUrl(), "client", "secret",
+                    SCOPES, server.getCurrentRefreshToken());
+
+            assertEquals("access-1", response.getAccessToken());
+            assertEquals(1, client.getRequestCount());
+
+            // Plain HTTP, so there's no TLS connection to count as new or reused
+            assertEquals(0, client.getTlsConnectionCount());
+            assertEquals(0, client.getReusedTlsConnectionCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.json.gson.GsonFactory;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Checks that the discovery document is revalidated with its ETag and read from disk on a cold
+ * start, that a document for another issuer is rejected and that failed fetches back off instead
+ * of being retried right away.
+ */
+public class ProviderDiscoveryTest extends TestCase {
+
+    private static final String ISSUER = "https://provider.example.com";
+    private static final String DISCOVERY_URL = ISSUER + ProviderDiscovery.WELL_KNOWN_PATH;
+
+    private static final String DOCUMENT = "{\"issuer\":\"" + ISSUER + "\","
+            + "\"token_endpoint\":\"" + ISSUER + "/v2/token\"}";
+
+    private static final ProviderConfiguration DEFAULTS = new ProviderConfiguration(ISSUER,
+            ISSUER + "/authorize", ISSUER + "/token", ISSUER + "/userinfo", ISSUER + "/jwks");
+
+    private final StubTransport transport = new StubTransport();
+
+    public void testStaleDocumentIsRevalidatedWithItsETag() throws Exception {
+        // Both responses are in place before the first read, so the background revalidation that
+        // it starts can't get ahead of the test
+        transport.enqueue(200, DOCUMENT, "ETag", "\"v1\"", "Cache-Control", "max-age=0");
+        transport.respond(304, "", "Cache-Control", "max-age=3600");
+
+        ProviderDiscovery discovery = newDiscovery();
+        ProviderConfiguration configuration = discovery.getConfiguration();
+
+        assertEquals(ISSUER + "/v2/token", configuration.getTokenEndpoint());
+        assertEquals(ISSUER + "/authorize", configuration.getAuthorizationEndpoint());
+
+        // It went stale straight away, so it's revalidated in the background
+        ProviderConfiguration revalidated = awaitRevalidation(discovery, configuration);
+
+        assertEquals(2, transport.getRequestCount());
+        assertEquals("\"v1\"", transport.getLastRequest().getFirstHeaderValue("If-None-Match"));
+
+        // The 304 kept the same document and made it fresh for an hour
+        assertEquals(ISSUER + "/v2/token", revalidated.getTokenEndpoint());
+        assertSame(revalidated, discovery.getConfiguration());
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    public void testCachedDocumentIsUsedOnColdStart() throws Exception {
+        File cacheFile = File.createTempFile("oidc-configuration", ".json");
+        cacheFile.delete();
+
+        try {
+            transport.respond(200, DOCUMENT, "Cache-Control", "max-age=3600");
+            newDiscovery(cacheFile).getConfiguration();
+
+            // As if the app had been restarted while the provider is down
+            transport.respond(500, "{}");
+            ProviderConfiguration configuration = newDiscovery(cacheFile).getConfiguration();
+
+            // It's still fresh, so there was no need to ask
+            assertEquals(ISSUER + "/v2/token", configuration.getTokenEndpoint());
+            assertEquals(1, transport.getRequestCount());
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    public void testDocumentForAnotherIssuerIsRejected() throws Exception {
+        transport.respond(200, "{\"issuer\":\"https://evil.example.com\","
+                + "\"token_endpoint\":\"https://evil.example.com/token\"}");
+
+        ProviderConfiguration configuration = newDiscovery().getConfiguration();
+
+        assertEquals(ISSUER, configuration.getIssuer());
+        assertEquals(ISSUER + "/token", configuration.getTokenEndpoint());
+    }
+
+    public void testFailedFetchesBackOff() throws Exception {
+        transport.respond(500, "{}");
+
+        ProviderDiscovery discovery = newDiscovery();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ISSUER + "/token", discovery.getConfiguration().getTokenEndpoint());
+            Thread.sleep(10);
+        }
+
+        // The fallback is stale, but we don't ask again before the backoff is over
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    /**
+     * Waits until the background revalidation has replaced the given configuration. Gives up after
+     * a couple of seconds.
+     */
+    private static ProviderConfiguration awaitRevalidation(ProviderDiscovery discovery,
+                                                           ProviderConfiguration previous)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 2000;
+
+        // While a revalidation is in flight, reading the configuration doesn't start another one
+        while (System.currentTimeMillis() < deadline) {
+            ProviderConfiguration current = discovery.getConfiguration();
+
+            if (current != previous) {
+                return current;
+            }
+
+            Thread.sleep(10);
+        }
+
+        fail("The configuration was not revalidated");
+        return null;
+    }
+
+    private ProviderDiscovery newDiscovery() {
+        return newDiscovery(null);
+    }
+
+    private ProviderDiscovery newDiscovery(File cacheFile) {
+        return new ProviderDiscovery(DISCOVERY_URL, ISSUER, cacheFile,
+                transport.createRequestFactory(), new GsonFactory(), DEFAULTS);
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.lnikkila.oidcsample.oidc;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks which navigations are taken for the Redirect URI, in particular that an empty path and
+ * `/` are treated the same.
+ */
+public class RedirectMatcherTest extends TestCase {
+
+    public void testRedirectUriWithPath() {
+        RedirectMatcher matcher = new RedirectMatcher("app://callback/done");
+
+        assertTrue(matcher.matches("app://callback/done"));
+        assertTrue(matcher.matches("app://callback/done?code=abc"));
+        assertTrue(matcher.matches("app://callback/done#code=abc"));
+
+        assertFalse(matcher.matches("app://callback/done-page"));
+        assertFalse(matcher.matches("app://callback/other"));
+        assertFalse(matcher.matches(null));
+    }
+
+    public void testEmptyPathMatchesSlash() {
+        RedirectMatcher matcher = new RedirectMatcher("https://host");
+
+        assertTrue(matcher.matches("https://host"));
+        assertTrue(matcher.matches("https://host?code=abc"));
+        assertTrue(matcher.matches("https://host/"));
+        assertTrue(matcher.matches("https://host/?code=abc"));
+        assertTrue(matcher.matches("https://host/#code=abc"));
+
+        assertFalse(matcher.matches("https://host.example.com/?code=abc"));
+        assertFalse(matcher.matches("https://host/login?code=abc"));
+    }
+
+    public void testSlashMatchesEmptyPath() {
+        RedirectMatcher matcher = new RedirectMatcher("https://host/");
+
+        assertTrue(matcher.matches("https://host?code=abc"));
+        assertTrue(matcher.matches("https://host/?code=abc"));
+
+        // Everything below the slash, as before
+        assertTrue(matcher.matches("https://host/login?code=abc"));
+
+        assertFalse(matcher.matches("https://hostile/?code=abc"));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+/**
+ * Walks a circuit through opening, probing and closing again, with backoffs short enough to wait
+ * out.
+ */
+public class RefreshFailureTrackerTest extends TestCase {
+
+    private static final String ISSUER = "https://provider.example.com";
+
+    public void testCircuitOpensAfterConsecutiveFailuresAndClosesAfterProbe() throws Exception {
+        RefreshFailureTracker tracker = new RefreshFailureTracker(3, 100, 1000, 0);
+
+        for (int i = 0; i < 3; i++) {
+            tracker.checkAllowed(ISSUER, "account-" + i);
+            tracker.recordFailure(ISSUER, "account-" + i, new ConnectException());
+        }
+
+        assertEquals(RefreshFailureTracker.CircuitState.OPEN,
+                tracker.getSnapshot(ISSUER).state);
+
+        try {
+            tracker.checkAllowed(ISSUER, "account-3");
+            fail();
+        } catch (RefreshFailureTracker.CircuitOpenException e) {
+            assertTrue(e.getRetryAt() > System.currentTimeMillis());
+        }
+
+        // The jittered backoff is at most 150 ms
+        Thread.sleep(200);
+
+        tracker.checkAllowed(ISSUER, "account-3");
+        assertEquals(RefreshFailureTracker.CircuitState.HALF_OPEN,
+                tracker.getSnapshot(ISSUER).state);
+
+        // Only the probe gets through
+        try {
+            tracker.checkAllowed(ISSUER, "account-4");
+            fail();
+        } catch (RefreshFailureTracker.CircuitOpenException e) {
+            // Expected
+        }
+
+        tracker.recordSuccess(ISSUER, "account-3");
+
+        RefreshFailureTracker.Snapshot snapshot = tracker.getSnapshot(ISSUER);
+        assertEquals(RefreshFailureTracker.CircuitState.CLOSED, snapshot.state);
+        assertEquals(0, snapshot.consecutiveFailures);
+        assertEquals(3, snapshot.failureCount);
+        assertEquals(2, snapshot.rejectedCount);
+    }
+
+    public void testAnswerFromTheEndpointBreaksTheRunOfFailures() throws Exception {
+        RefreshFailureTracker tracker = new RefreshFailureTracker(3, 100, 1000, 0);
+
+        tracker.checkAllowed(ISSUER, "account-0");
+        tracker.recordFailure(ISSUER, "account-0", new ConnectException());
+        tracker.checkAllowed(ISSUER, "account-1");
+        tracker.recordFailure(ISSUER, "account-1", new ConnectException());
+
+        // e.g. an invalid_grant, which doesn't say anything bad about the endpoint
+        tracker.checkAllowed(ISSUER, "account-2");
+        tracker.recordFailure(ISSUER, "account-2",
+                new HttpResponseException.Builder(400, "Bad Request", new HttpHeaders()).build());
+
+        assertEquals(0, tracker.getSnapshot(ISSUER).consecutiveFailures);
+
+        // So two more network errors aren't enough to open the circuit
+        for (int i = 3; i < 5; i++) {
+            tracker.checkAllowed(ISSUER, "account-" + i);
+            tracker.recordFailure(ISSUER, "account-" + i, new ConnectException());
+        }
+
+        RefreshFailureTracker.Snapshot snapshot = tracker.getSnapshot(ISSUER);
+        assertEquals(RefreshFailureTracker.CircuitState.CLOSED, snapshot.state);
+        assertEquals(2, snapshot.consecutiveFailures);
+        assertEquals(4, snapshot.failureCount);
+    }
+
+    public void testRecentFailureOfAnAccountFailsFast() throws Exception {
+        RefreshFailureTracker tracker = new RefreshFailureTracker(3, 100, 1000, 60 * 1000);
+        IOException error = new ConnectException("Connection refused");
+
+        tracker.checkAllowed(ISSUER, "account");
+        tracker.recordFailure(ISSUER, "account", error);
+
+        try {
+            tracker.checkAllowed(ISSUER, "account");
+            fail();
+        } catch (RefreshFailureTracker.RecentFailureException e) {
+            assertSame(error, e.getCause());
+            assertTrue(e.getRetryAt() > System.currentTimeMillis());
+
+            // Failing fast isn't the endpoint's fault
+            assertFalse(RefreshFailureTracker.isEndpointFailure(e));
+        }
+
+        // Other accounts are still refreshed
+        tracker.checkAllowed(ISSUER, "other-account");
+        assertEquals(RefreshFailureTracker.CircuitState.CLOSED,
+                tracker.getSnapshot(ISSUER).state);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.lnikkila.oidcsample.oidc;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Checks that cached responses never cross accounts, honour their max-age and are evicted least
+ * recently used first.
+ */
+public class ResponseCacheTest extends TestCase {
+
+    private static final String URL = "https://api.example.com/me";
+
+    public void testEntriesAreScopedAndBounded() {
+        ResponseCache cache = new ResponseCache(2);
+        Object alice = new Object();
+
+        cache.put("alice", URL, Map.class, alice, 60 * 1000);
+
+        assertSame(alice, cache.get("alice", URL, Map.class));
+        assertNull(cache.get("bob", URL, Map.class));
+        assertNull(cache.get("alice", URL, Object.class));
+
+        cache.put("bob", URL, Map.class, new Object(), 60 * 1000);
+
+        // Alice was used more recently than Bob, so Bob makes way for Carol
+        cache.get("alice", URL, Map.class);
+        cache.put("carol", URL, Map.class, new Object(), 60 * 1000);
+
+        assertEquals(2, cache.size());
+        assertSame(alice, cache.get("alice", URL, Map.class));
+        assertNull(cache.get("bob", URL, Map.class));
+
+        cache.retainScopes(Collections.singleton("carol"));
+        assertNull(cache.get("alice", URL, Map.class));
+        assertEquals(1, cache.size());
+    }
+
+    public void testFreshness() {
+        assertEquals(60 * 1000, ResponseCache.getFreshnessMillis("private, max-age=60", null));
+        assertEquals(45 * 1000, ResponseCache.getFreshnessMillis("max-age=60", 15L));
+        assertEquals(0, ResponseCache.getFreshnessMillis("max-age=60", 90L));
+        assertEquals(0, ResponseCache.getFreshnessMillis("max-age=60, no-store", null));
+        assertEquals(0, ResponseCache.getFreshnessMillis(null, null));
+
+        ResponseCache cache = new ResponseCache(ResponseCache.DEFAULT_MAX_SIZE);
+        cache.put("alice", URL, Map.class, new Object(), 0);
+        cache.put("bob", URL, Map.class, new Object(), -1);
+
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hammers a single account from many threads against a Token Endpoint that rotates Refresh
+ * Tokens, and checks that only one refresh ever reaches the server.
+ */
+public class SingleFlightTest extends TestCase {
+
+    private static final int THREAD_COUNT = 32;
+    private static final int ROUNDS = 5;
+
+    private static final String[] SCOPES = {"openid", "offline_access"};
+
+    private OIDCClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        client = new OIDCClient.Builder().build();
+    }
+
+    public void testConcurrentRefreshesForOneAccountShareOneRequest() throws Exception {
+        StubTokenServer server = new StubTokenServer(200);
+        SingleFlight<String, IdTokenResponse> flight = new SingleFlight<>();
+
+        // Stands in for the Refresh Token stored in the account
+        AtomicReference<String> storedRefreshToken =
+                new AtomicReference<>(server.getCurrentRefreshToken());
+
+        try {
+            for (int round = 1; round <= ROUNDS; round++) {
+                List<Object> results = hammer(flight, "account", server, storedRefreshToken);
+
+                for (Object result : results) {
+                    assertTrue("Refresh failed: " + result, result instanceof IdTokenResponse);
+                    assertEquals("access-" + round, ((IdTokenResponse) result).getAccessToken());
+                }
+
+                assertEquals(round, server.getRefreshCount());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testDifferentAccountsDoNotBlockEachOther() throws Exception {
+        final long delayMillis = 500;
+
+        StubTokenServer firstServer = new StubTokenServer(delayMillis);
+        StubTokenServer secondServer = new StubTokenServer(delayMillis);
+        SingleFlight<String, IdTokenResponse> flight = new SingleFlight<>();
+
+        try {
+            final List<Object> firstResults = new ArrayList<>();
+            final List<Object> secondResults = new ArrayList<>();
+
+            long start = System.nanoTime();
+
+            Thread first = startHammer(flight, "first", firstServer, firstResults);
+            Thread second = startHammer(flight, "second", secondServer, secondResults);
+
+            first.join();
+            second.join();
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(1, firstServer.getRefreshCount());
+            assertEquals(1, secondServer.getRefreshCount());
+            assertTrue("Refreshes were serialised, took " + elapsedMillis + " ms",
+                    elapsedMillis < 2 * delayMillis);
+        } finally {
+            firstServer.shutdown();
+            secondServer.shutdown();
+        }
+    }
+
+    private Thread startHammer(final SingleFlight<String, IdTokenResponse> flight,
+                               final String account, final StubTokenServer server,
+                               final List<Object> results) {
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.addAll(hammer(flight, account, server,
+                            new AtomicReference<>(server.getCurrentRefreshToken())));
+                } catch (InterruptedException e) {
+                    results.add(e);
+                }
+            }
+        });
+
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Starts all threads at once and collects either the response or the exception of each.
+     */
+    private List<Object> hammer(final SingleFlight<String, IdTokenResponse> flight,
+                                final String account, final StubTokenServer server,
+                                final AtomicReference<String> storedRefreshToken)
+            throws InterruptedException {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        final List<Object> results = new ArrayList<>();
+
+        final Callable<IdTokenResponse> refresh = new Callable<IdTokenResponse>() {
+            @Override
+            public IdTokenResponse call() throws Exception {
+                IdTokenResponse response = client.refreshTokens(server.getUrl(), "client",
+                        "secret", SCOPES, storedRefreshToken.get());
+
+                storedRefreshToken.set(response.getRefreshToken());
+                return response;
+            }
+        };
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Object result;
+
+                    try {
+                        start.await();
+                        result = flight.execute(account, refresh);
+                    } catch (Exception e) {
+                        result = e;
+                    }
+
+                    synchronized (results) {
+                        results.add(result);
+                    }
+
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        return results;
+    }
+
+}
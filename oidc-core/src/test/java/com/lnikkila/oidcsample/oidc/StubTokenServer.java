@@ -0,0 +1,143 @@
+package com.lnikkila.oidcsample.oidc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny Token Endpoint that rotates Refresh Tokens like a strict provider would: every Refresh
+ * Token can be exchanged exactly once, after which it's rejected with `invalid_grant`.
+ */
+class StubTokenServer {
+
+    private final ServerSocket serverSocket;
+    private final long delayMillis;
+
+    private final AtomicInteger refreshCount = new AtomicInteger();
+    private String currentRefreshToken = "refresh-0";
+
+    StubTokenServer(long delayMillis) throws IOException {
+        this.delayMillis = delayMillis;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                handle(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // Closed
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/token";
+    }
+
+    synchronized String getCurrentRefreshToken() {
+        return currentRefreshToken;
+    }
+
+    int getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    void shutdown() throws IOException {
+        serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+
+            int contentLength = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+
+            char[] body = new char[contentLength];
+            int read = 0;
+
+            while (read < contentLength) {
+                int count = reader.read(body, read, contentLength - read);
+                if (count < 0) break;
+                read += count;
+            }
+
+            String refreshToken = getParameter(new String(body, 0, read), "refresh_token");
+            String response;
+            int status;
+
+            synchronized (this) {
+                if (refreshToken != null && refreshToken.equals(currentRefreshToken)) {
+                    int count = refreshCount.incrementAndGet();
+                    currentRefreshToken = "refresh-" + count;
+
+                    status = 200;
+                    response = String.format("{\"access_token\":\"access-%1$d\"," +
+                            "\"token_type\":\"Bearer\",\"expires_in\":3600," +
+                            "\"id_token\":\"id-%1$d\",\"refresh_token\":\"refresh-%1$d\"}", count);
+                } else {
+                    status = 400;
+                    response = "{\"error\":\"invalid_grant\"}";
+                }
+            }
+
+            Thread.sleep(delayMillis);
+
+            byte[] bytes = response.getBytes("UTF-8");
+            OutputStream out = socket.getOutputStream();
+
+            out.write(String.format("HTTP/1.1 %d %s\r\nContent-Type: application/json\r\n" +
+                    "Content-Length: %d\r\nConnection: close\r\n\r\n", status,
+                    status == 200 ? "OK" : "Bad Request", bytes.length).getBytes("UTF-8"));
+            out.write(bytes);
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // The test will notice
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    private static String getParameter(String form, String name) throws IOException {
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+
+            if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A transport that answers requests with the responses queued for them, or with whatever response
+ * was set last once the queue runs out, and remembers the requests it was sent so that tests can
+ * check their headers.
+ */
+class StubTransport extends MockHttpTransport {
+
+    private final List<MockLowLevelHttpRequest> requests =
+            Collections.synchronizedList(new ArrayList<MockLowLevelHttpRequest>());
+
+    private final Queue<Response> queued = new ConcurrentLinkedQueue<>();
+
+    private volatile Response response = new Response(200, "{}");
+
+    /**
+     * Answers from now on with the given status, JSON body and header name-value pairs.
+     */
+    void respond(int statusCode, String body, String... headers) {
+        response = new Response(statusCode, body, headers);
+    }
+
+    /**
+     * Answers the next request that doesn't have a response queued yet with the given status, JSON
+     * body and header name-value pairs, so that tests don't have to race background requests.
+     */
+    void enqueue(int statusCode, String body, String... headers) {
+        queued.add(new Response(statusCode, body, headers));
+    }
+
+    int getRequestCount() {
+        return requests.size();
+    }
+
+    MockLowLevelHttpRequest getLastRequest() {
+        synchronized (requests) {
+            return requests.get(requests.size() - 1);
+        }
+    }
+
+    @Override
+    public MockLowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                Response next = queued.poll();
+
+                if (next == null) {
+                    next = response;
+                }
+
+                MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse()
+                        .setStatusCode(next.statusCode)
+                        .setContentType("application/json")
+                        .setContent(next.body);
+
+                for (int i = 0; i + 1 < next.headers.length; i += 2) {
+                    lowLevelResponse.addHeader(next.headers[i], next.headers[i + 1]);
+                }
+
+                requests.add(this);
+                return lowLevelResponse;
+            }
+        };
+    }
+
+    private static final class Response {
+
+        final int statusCode;
+        final String body;
+        final String[] headers;
+
+        Response(int statusCode, String body, String... headers) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers;
+        }
+
+    }
+
+}
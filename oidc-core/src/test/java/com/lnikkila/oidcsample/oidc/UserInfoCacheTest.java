@@ -0,0 +1,86 @@
+package com.lnikkila.oidcsample.oidc;
+
+import com.google.api.client.util.Base64;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Checks that UserInfo claims are served from memory while fresh, revalidated with a conditional
+ * request after that, and that the cache only keeps the most recently used subjects.
+ */
+public class UserInfoCacheTest extends TestCase {
+
+    private static final String USERINFO_URL = "https://provider.example.com/userinfo";
+
+    private final StubTransport transport = new StubTransport();
+
+    public void testStaleClaimsAreRevalidated() throws Exception {
+        OIDCClient client = new OIDCClient.Builder()
+                .setTransport(transport)
+                .setUserInfoMaxAge(200)
+                .build();
+
+        String idToken = newIdToken("alice");
+
+        transport.respond(200, "{\"sub\":\"alice\",\"name\":\"Alice\"}", "ETag", "\"v1\"");
+        Map claims = client.getUserInfo(USERINFO_URL, idToken);
+
+        assertEquals("Alice", claims.get("name"));
+
+        // Still fresh, so no request at all
+        assertSame(claims, client.getUserInfo(USERINFO_URL, idToken));
+        assertEquals(1, transport.getRequestCount());
+
+        Thread.sleep(250);
+
+        // Stale, so it's revalidated and the server says it hasn't changed
+        transport.respond(304, "");
+
+        assertSame(claims, client.getUserInfo(USERINFO_URL, idToken));
+        assertEquals(2, transport.getRequestCount());
+        assertEquals("\"v1\"", transport.getLastRequest().getFirstHeaderValue("If-None-Match"));
+
+        // The 304 made it fresh again
+        assertSame(claims, client.getUserInfo(USERINFO_URL, idToken));
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    public void testLeastRecentlyUsedSubjectsAreEvicted() {
+        UserInfoCache cache = new UserInfoCache(UserInfoCache.DEFAULT_MAX_AGE_MILLIS, 2);
+
+        cache.put(USERINFO_URL, "alice", newEntry());
+        cache.put(USERINFO_URL, "bob", newEntry());
+
+        // Alice was used more recently, so Bob makes way
+        assertNotNull(cache.get(USERINFO_URL, "alice"));
+        cache.put(USERINFO_URL, "carol", newEntry());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(USERINFO_URL, "alice"));
+        assertNull(cache.get(USERINFO_URL, "bob"));
+        assertNotNull(cache.get(USERINFO_URL, "carol"));
+    }
+
+    private static UserInfoCache.Entry newEntry() {
+        return new UserInfoCache.Entry(Collections.emptyMap(), "\"v1\"", null,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * An unsigned ID Token, which is all that's needed to tell whose claims these are.
+     */
+    private static String newIdToken(String subject) throws Exception {
+        long expiresAt = System.currentTimeMillis() / 1000 + 60 * 60;
+
+        return encode("{\"alg\":\"none\"}") + '.'
+                + encode("{\"sub\":\"" + subject + "\",\"exp\":" + expiresAt + "}") + '.';
+    }
+
+    private static String encode(String json) throws Exception {
+        return Base64.encodeBase64URLSafeString(json.getBytes("UTF-8"));
+    }
+
+}
@@ -0,0 +1,757 @@
+package com.lnikkila.oidcsample.oidc.testing;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.util.Base64;
+import com.lnikkila.oidcsample.oidc.JwksCache;
+import com.lnikkila.oidcsample.oidc.ProviderConfiguration;
+import com.lnikkila.oidcsample.oidc.ProviderDiscovery;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An OpenID Connect provider that runs in-process, for exercising the client against a provider we
+ * control. It serves discovery, the Authorization Endpoint (which logs in whoever is given as
+ * `login_hint` and redirects straight back), the Token Endpoint for both codes and refreshes,
+ * UserInfo and the key set. ID Tokens are properly signed, so they pass verification.
+ *
+ * Misbehaviour can be dialled in through the builder: latency, a rate of failed requests, a rate
+ * limit on the Token Endpoint and strict Refresh Token rotation, where each Refresh Token can only
+ * be used once.
+ *
+ * Run `./gradlew :oidc-testing:runProvider` to start one on port 8080, e.g. for the app on an
+ * emulator, which reaches the host at 10.0.2.2.
+ *
+ * @author Camilo Montes
+ */
+public class FakeProvider {
+
+    public static final String AUTHORIZATION_PATH = "/authorize";
+    public static final String TOKEN_PATH = "/token";
+    public static final String USER_INFO_PATH = "/userinfo";
+    public static final String JWKS_PATH = "/jwks";
+
+    private static final String KEY_ID = "fake-provider-key";
+
+    private static final JsonFactory jsonFactory = new GsonFactory();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String issuer;
+    private final KeyPair keyPair;
+
+    private final String clientId;
+    private final long tokenLifetimeSeconds;
+    private final boolean rotateRefreshTokens;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double errorRate;
+    private final int tokenRequestsPerSecond;
+
+    private final Random random = new Random();
+
+    // Authorization Code -> the login it was issued for
+    private final ConcurrentMap<String, Login> codes = new ConcurrentHashMap<>();
+
+    // Refresh Token -> subject. Rotated tokens are removed as soon as they're used.
+    private final ConcurrentMap<String, String> refreshTokens = new ConcurrentHashMap<>();
+
+    // Access and ID Token -> the grant they were issued in
+    private final ConcurrentMap<String, Grant> grants = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong tokenRequestCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong invalidGrantCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong serverErrorCount = new AtomicLong();
+
+    private long rateLimitWindowStart;
+    private int rateLimitWindowCount;
+
+    private FakeProvider(Builder builder) throws IOException {
+        clientId = builder.clientId;
+        tokenLifetimeSeconds = builder.tokenLifetimeSeconds;
+        rotateRefreshTokens = builder.rotateRefreshTokens;
+        latencyMillis = builder.latencyMillis;
+        latencyJitterMillis = builder.latencyJitterMillis;
+        errorRate = builder.errorRate;
+        tokenRequestsPerSecond = builder.tokenRequestsPerSecond;
+
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            // Every JVM has to support RSA
+            throw new IllegalStateException(e);
+        }
+
+        server = HttpServer.create(new InetSocketAddress(builder.bindAddress, builder.port), 0);
+
+        // Handlers sleep to simulate latency, so each request needs its own thread
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        issuer = builder.issuer != null ? builder.issuer
+                : "http://127.0.0.1:" + server.getAddress().getPort();
+
+        server.createContext(ProviderDiscovery.WELL_KNOWN_PATH, new Endpoint() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+                handleDiscovery(exchange);
+            }
+        });
+
+        server.createContext(AUTHORIZATION_PATH, new Endpoint() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+                handleAuthorization(exchange, parameters);
+            }
+        });
+
+        server.createContext(TOKEN_PATH, new Endpoint() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+                handleToken(exchange, parameters);
+            }
+        });
+
+        server.createContext(USER_INFO_PATH, new Endpoint() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+                handleUserInfo(exchange);
+            }
+        });
+
+        server.createContext(JWKS_PATH, new Endpoint() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+                handleKeySet(exchange);
+            }
+        });
+
+        server.start();
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getDiscoveryUrl() {
+        return issuer + ProviderDiscovery.WELL_KNOWN_PATH;
+    }
+
+    public String getAuthorizationUrl() {
+        return issuer + AUTHORIZATION_PATH;
+    }
+
+    public String getTokenUrl() {
+        return issuer + TOKEN_PATH;
+    }
+
+    public String getUserInfoUrl() {
+        return issuer + USER_INFO_PATH;
+    }
+
+    public String getKeySetUrl() {
+        return issuer + JWKS_PATH;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public ProviderConfiguration getConfiguration() {
+        return new ProviderConfiguration(issuer, getAuthorizationUrl(), getTokenUrl(),
+                getUserInfoUrl(), getKeySetUrl());
+    }
+
+    /**
+     * Logs the subject in without going through the Authorization Endpoint, e.g. for seeding a
+     * load test with many accounts.
+     */
+    public IdTokenResponse login(String subject) throws IOException {
+        return jsonFactory.fromString(jsonFactory.toString(issueTokens(subject, null)),
+                IdTokenResponse.class);
+    }
+
+    /**
+     * Every request that reached the provider, including the ones it failed on purpose.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getTokenRequestCount() {
+        return tokenRequestCount.get();
+    }
+
+    /**
+     * The number of Refresh Tokens that were successfully exchanged.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * The number of codes and Refresh Tokens that were rejected, e.g. because a rotated Refresh
+     * Token was used again.
+     */
+    public long getInvalidGrantCount() {
+        return invalidGrantCount.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    /**
+     * The number of requests that were failed on purpose with a 503.
+     */
+    public long getServerErrorCount() {
+        return serverErrorCount.get();
+    }
+
+    public void shutdown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleDiscovery(HttpExchange exchange) throws IOException {
+        GenericJson document = new GenericJson();
+        document.set("issuer", issuer);
+        document.set("authorization_endpoint", getAuthorizationUrl());
+        document.set("token_endpoint", getTokenUrl());
+        document.set("userinfo_endpoint", getUserInfoUrl());
+        document.set("jwks_uri", getKeySetUrl());
+        document.set("response_types_supported",
+                new String[] { "code", "id_token", "code id_token", "code id_token token" });
+        document.set("subject_types_supported", new String[] { "public" });
+        document.set("id_token_signing_alg_values_supported", new String[] { "RS256" });
+
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+        sendJson(exchange, 200, document);
+    }
+
+    private void handleAuthorization(HttpExchange exchange, Map<String, String> parameters)
+            throws IOException {
+
+        String redirectUri = parameters.get("redirect_uri");
+        String responseType = parameters.get("response_type");
+
+        if (redirectUri == null || responseType == null) {
+            sendError(exchange, 400, "invalid_request");
+            return;
+        }
+
+        String subject = parameters.containsKey("login_hint") ? parameters.get("login_hint")
+                : "user";
+
+        Login login = new Login(subject, parameters.get("nonce"));
+        Map<String, String> response = new LinkedHashMap<>();
+
+        if (responseType.contains("code")) {
+            String code = UUID.randomUUID().toString();
+            codes.put(code, login);
+            response.put("code", code);
+        }
+
+        if (responseType.contains("id_token") || responseType.contains("token")) {
+            GenericJson tokens = issueTokens(subject, login.nonce);
+
+            if (responseType.contains("id_token")) {
+                response.put("id_token", (String) tokens.get("id_token"));
+            }
+
+            if (responseType.matches(".*\\btoken\\b.*")) {
+                response.put("access_token", (String) tokens.get("access_token"));
+                response.put("token_type", "Bearer");
+                response.put("expires_in", String.valueOf(tokenLifetimeSeconds));
+            }
+        }
+
+        if (parameters.containsKey("state")) {
+            response.put("state", parameters.get("state"));
+        }
+
+        // The Authorization Code flow returns everything in the query, the others in the fragment
+        String separator = responseType.equals("code") ? (redirectUri.contains("?") ? "&" : "?")
+                : "#";
+
+        exchange.getResponseHeaders().set("Location", redirectUri + separator + encode(response));
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private void handleToken(HttpExchange exchange, Map<String, String> parameters)
+            throws IOException {
+
+        tokenRequestCount.incrementAndGet();
+
+        if (isRateLimited()) {
+            rateLimitedCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "slow_down");
+            return;
+        }
+
+        String grantType = parameters.get("grant_type");
+
+        if ("authorization_code".equals(grantType)) {
+            Login login = codes.remove(String.valueOf(parameters.get("code")));
+
+            if (login == null) {
+                invalidGrantCount.incrementAndGet();
+                sendError(exchange, 400, "invalid_grant");
+                return;
+            }
+
+            sendJson(exchange, 200, issueTokens(login.subject, login.nonce));
+        } else if ("refresh_token".equals(grantType)) {
+            String refreshToken = String.valueOf(parameters.get("refresh_token"));
+            String subject = rotateRefreshTokens ? refreshTokens.remove(refreshToken)
+                    : refreshTokens.get(refreshToken);
+
+            if (subject == null) {
+                invalidGrantCount.incrementAndGet();
+                sendError(exchange, 400, "invalid_grant");
+                return;
+            }
+
+            refreshCount.incrementAndGet();
+
+            GenericJson tokens = issueTokens(subject, null);
+
+            if (!rotateRefreshTokens) {
+                // Like most providers that don't rotate, leave the Refresh Token out
+                refreshTokens.remove((String) tokens.remove("refresh_token"));
+            }
+
+            sendJson(exchange, 200, tokens);
+        } else {
+            sendError(exchange, 400, "unsupported_grant_type");
+        }
+    }
+
+    private void handleUserInfo(HttpExchange exchange) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        Grant grant = null;
+
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            grant = grants.get(authorization.substring(7));
+        }
+
+        if (grant == null || grant.expiresAt <= System.currentTimeMillis()) {
+            exchange.getResponseHeaders().set("WWW-Authenticate",
+                    "Bearer error=\"invalid_token\"");
+            sendError(exchange, 401, "invalid_token");
+            return;
+        }
+
+        String etag = "\"" + grant.subject + "\"";
+
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        GenericJson claims = new GenericJson();
+        claims.set("sub", grant.subject);
+        claims.set("name", grant.subject);
+        claims.set("preferred_username", grant.subject);
+        claims.set("email", grant.subject + "@example.com");
+
+        exchange.getResponseHeaders().set("ETag", etag);
+        sendJson(exchange, 200, claims);
+    }
+
+    private void handleKeySet(HttpExchange exchange) throws IOException {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        JwksCache.JsonWebKey key = new JwksCache.JsonWebKey();
+        key.keyType = "RSA";
+        key.keyId = KEY_ID;
+        key.use = "sig";
+        key.modulus = toBase64Url(publicKey.getModulus());
+        key.exponent = toBase64Url(publicKey.getPublicExponent());
+
+        GenericJson keySet = new GenericJson();
+        keySet.set("keys", Collections.singletonList(key));
+
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=86400");
+        sendJson(exchange, 200, keySet);
+    }
+
+    private GenericJson issueTokens(String subject, String nonce) throws IOException {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + tokenLifetimeSeconds * 1000;
+
+        JsonWebSignature.Header header = new JsonWebSignature.Header()
+                .setAlgorithm("RS256")
+                .setKeyId(KEY_ID);
+
+        IdToken.Payload payload = new IdToken.Payload()
+                .setIssuer(issuer)
+                .setAudience(clientId)
+                .setSubject(subject)
+                .setIssuedAtTimeSeconds(now / 1000)
+                .setExpirationTimeSeconds(expiresAt / 1000)
+                .setNonce(nonce);
+
+        // Makes every token unique, even if two are issued within the same second
+        payload.setJwtId(UUID.randomUUID().toString());
+        payload.set("preferred_username", subject);
+
+        String idToken;
+
+        try {
+            idToken = JsonWebSignature.signUsingRsaSha256(keyPair.getPrivate(), jsonFactory,
+                    header, payload);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not sign the ID Token.", e);
+        }
+
+        String accessToken = UUID.randomUUID().toString();
+        String refreshToken = UUID.randomUUID().toString();
+
+        Grant grant = new Grant(subject, expiresAt);
+        grants.put(idToken, grant);
+        grants.put(accessToken, grant);
+        refreshTokens.put(refreshToken, subject);
+
+        GenericJson tokens = new GenericJson();
+        tokens.set("access_token", accessToken);
+        tokens.set("token_type", "Bearer");
+        tokens.set("expires_in", tokenLifetimeSeconds);
+        tokens.set("id_token", idToken);
+        tokens.set("refresh_token", refreshToken);
+        tokens.set("scope", "openid profile offline_access");
+        return tokens;
+    }
+
+    private synchronized boolean isRateLimited() {
+        if (tokenRequestsPerSecond <= 0) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - rateLimitWindowStart >= 1000) {
+            rateLimitWindowStart = now;
+            rateLimitWindowCount = 0;
+        }
+
+        return ++rateLimitWindowCount > tokenRequestsPerSecond;
+    }
+
+    private void simulateLatency() {
+        long delay = latencyMillis;
+
+        if (latencyJitterMillis > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * latencyJitterMillis);
+            }
+        }
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean shouldFail() {
+        if (errorRate <= 0) {
+            return false;
+        }
+
+        synchronized (random) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String error)
+            throws IOException {
+
+        GenericJson body = new GenericJson();
+        body.set("error", error);
+        sendJson(exchange, status, body);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, GenericJson body)
+            throws IOException {
+
+        byte[] bytes = jsonFactory.toByteArray(body);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        OutputStream out = exchange.getResponseBody();
+
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Map<String, String> parseForm(String form) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+
+        if (form == null || form.isEmpty()) {
+            return parameters;
+        }
+
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+
+        return parameters;
+    }
+
+    private static String encode(Map<String, String> parameters) throws IOException {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append('&');
+            }
+
+            builder.append(URLEncoder.encode(entry.getKey(), "UTF-8"))
+                    .append('=')
+                    .append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+        }
+
+        return builder.toString();
+    }
+
+    private static String toBase64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+
+        // Drop the sign byte
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+
+        return Base64.encodeBase64URLSafeString(bytes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+
+        FakeProvider provider = new Builder()
+                .setBindAddress("0.0.0.0")
+                .setPort(port)
+                .build();
+
+        System.out.println("Fake provider running at " + provider.getIssuer());
+        System.out.println("Discovery: " + provider.getDiscoveryUrl());
+        System.out.println("Client ID: " + provider.getClientId());
+    }
+
+    /**
+     * Reads the parameters, simulates latency and failures and hands the request on.
+     */
+    private abstract class Endpoint implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requestCount.incrementAndGet();
+
+                Map<String, String> parameters = parseForm(exchange.getRequestURI().getRawQuery());
+
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    parameters.putAll(parseForm(readBody(exchange)));
+                }
+
+                simulateLatency();
+
+                if (shouldFail()) {
+                    serverErrorCount.incrementAndGet();
+                    sendError(exchange, 503, "temporarily_unavailable");
+                    return;
+                }
+
+                handle(exchange, parameters);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void handle(HttpExchange exchange, Map<String, String> parameters)
+                throws IOException;
+
+        private String readBody(HttpExchange exchange) throws IOException {
+            InputStream in = exchange.getRequestBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+
+            return out.toString("UTF-8");
+        }
+
+    }
+
+    private static class Login {
+
+        final String subject;
+        final String nonce;
+
+        Login(String subject, String nonce) {
+            this.subject = subject;
+            this.nonce = nonce;
+        }
+
+    }
+
+    private static class Grant {
+
+        final String subject;
+        final long expiresAt;
+
+        Grant(String subject, long expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    public static class Builder {
+
+        private String bindAddress = "127.0.0.1";
+        private int port;
+        private String issuer;
+
+        private String clientId = "fake-client";
+        private long tokenLifetimeSeconds = 3600;
+        private boolean rotateRefreshTokens = true;
+
+        private long latencyMillis;
+        private long latencyJitterMillis;
+        private double errorRate;
+        private int tokenRequestsPerSecond;
+
+        /**
+         * Which interface to listen on. Defaults to the loopback interface, use "0.0.0.0" to make
+         * the provider reachable from an emulator or another device.
+         */
+        public Builder setBindAddress(String bindAddress) {
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * Defaults to any free port.
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * The URL that clients reach the provider at, if it's not the one it's bound to, e.g.
+         * `http://10.0.2.2:8080` for an emulator. Used as the `iss` claim and in discovery.
+         */
+        public Builder setIssuer(String issuer) {
+            this.issuer = issuer;
+            return this;
+        }
+
+        public Builder setClientId(String clientId) {
+            this.clientId = clientId;
+            return this;
+        }
+
+        /**
+         * How long issued tokens stay valid. Short lifetimes make every account refresh at once.
+         */
+        public Builder setTokenLifetimeSeconds(long tokenLifetimeSeconds) {
+            this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+            return this;
+        }
+
+        /**
+         * Whether every refresh returns a new Refresh Token and retires the old one, so that
+         * concurrent refreshes with the same token fail with `invalid_grant`. Defaults to true.
+         */
+        public Builder setRotateRefreshTokens(boolean rotateRefreshTokens) {
+            this.rotateRefreshTokens = rotateRefreshTokens;
+            return this;
+        }
+
+        /**
+         * How long every request takes, plus a random jitter of up to `jitterMillis`.
+         */
+        public Builder setLatency(long latencyMillis, long jitterMillis) {
+            this.latencyMillis = latencyMillis;
+            this.latencyJitterMillis = jitterMillis;
+            return this;
+        }
+
+        /**
+         * The fraction of requests, between 0 and 1, that fail with a 503.
+         */
+        public Builder setErrorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * How many Token Endpoint requests are accepted per second before the rest get a 429. 0,
+         * the default, means no limit.
+         */
+        public Builder setTokenRateLimit(int requestsPerSecond) {
+            this.tokenRequestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        public FakeProvider build() throws IOException {
+            return new FakeProvider(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,473 @@
+package com.lnikkila.oidcsample.oidc.testing;
+
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.lnikkila.oidcsample.oidc.InMemoryMetrics;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+import com.lnikkila.oidcsample.oidc.OIDCMetrics;
+import com.lnikkila.oidcsample.oidc.SingleFlight;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+
+/**
+ * Simulates many callers making authenticated requests for many accounts against a
+ * {@link FakeProvider}, the way the app's API code does: each call sends the account's ID Token,
+ * refreshes it first if it has expired, and refreshes and retries once if it's rejected.
+ *
+ * With a short token lifetime, all accounts expire at about the same time and every caller that
+ * picks an expired account wants to refresh it. That's a refresh storm, and the report shows how it
+ * went: the tail latency of calls, how many requests the provider had to serve per call and per
+ * refresh, and how many failures each failure at the provider turned into. If a refresh is rejected,
+ * the account is logged in again as if the user had done it, so the run can go on.
+ *
+ * Refreshes for the same account are coalesced with {@link SingleFlight} by default, like the app
+ * does. Turn that off to see what happens without it.
+ *
+ * @author Camilo Montes
+ */
+public class LoadDriver {
+
+    private static final String[] SCOPES = { "openid", "profile", "offline_access" };
+
+    private static final String METRIC_CALL = "call";
+
+    private final FakeProvider provider;
+    private final OIDCClient client;
+    private final HttpRequestFactory requestFactory;
+    private final InMemoryMetrics metrics;
+
+    private final int accountCount;
+    private final int callerCount;
+    private final long durationMillis;
+    private final boolean coalesceRefreshes;
+    private final long seed;
+
+    private final SingleFlight<String, Tokens> refreshes = new SingleFlight<>();
+
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong failedCallCount = new AtomicLong();
+    private final AtomicLong refreshAttemptCount = new AtomicLong();
+    private final AtomicLong lostSessionCount = new AtomicLong();
+
+    private LoadDriver(Builder builder) {
+        provider = builder.provider;
+        accountCount = builder.accountCount;
+        callerCount = builder.callerCount;
+        durationMillis = builder.durationMillis;
+        coalesceRefreshes = builder.coalesceRefreshes;
+        seed = builder.seed;
+
+        if (builder.client != null) {
+            client = builder.client;
+            metrics = client.getMetrics() instanceof InMemoryMetrics
+                    ? (InMemoryMetrics) client.getMetrics() : new InMemoryMetrics();
+        } else {
+            metrics = new InMemoryMetrics();
+            client = new OIDCClient.Builder()
+                    .setMaxConnections(callerCount)
+                    .setIssuer(provider.getIssuer())
+                    .setMetrics(metrics)
+                    .build();
+        }
+
+        requestFactory = client.getTransport().createRequestFactory(client.getRequestInitializer());
+    }
+
+    /**
+     * Logs in every account, runs the callers for the configured duration and reports how it went.
+     */
+    public Report run() throws IOException, InterruptedException {
+        final List<SimulatedAccount> accounts = new ArrayList<>();
+
+        for (int i = 0; i < accountCount; i++) {
+            SimulatedAccount account = new SimulatedAccount("account-" + i);
+            account.tokens = new Tokens(provider.login(account.subject), null);
+            accounts.add(account);
+        }
+
+        final long deadline = System.currentTimeMillis() + durationMillis;
+        final CountDownLatch done = new CountDownLatch(callerCount);
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < callerCount; i++) {
+            final Random random = new Random(seed + i);
+
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            call(accounts.get(random.nextInt(accounts.size())));
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "LoadDriver-" + i);
+
+            caller.setDaemon(true);
+            caller.start();
+        }
+
+        done.await();
+
+        return new Report(this, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    private void call(SimulatedAccount account) {
+        long startTime = System.nanoTime();
+        boolean successful = false;
+
+        try {
+            Tokens tokens = account.tokens;
+
+            if (tokens.isExpired()) {
+                tokens = refresh(account, tokens);
+            }
+
+            int status = get(tokens.idToken);
+
+            if (status == HTTP_UNAUTHORIZED) {
+                metrics.recordRetry(OIDCMetrics.ENDPOINT_API, status);
+                status = get(refresh(account, tokens).idToken);
+            }
+
+            successful = status == HTTP_OK || status == HTTP_NOT_MODIFIED;
+        } catch (IOException e) {
+            // Counted below
+        } finally {
+            callCount.incrementAndGet();
+
+            if (!successful) {
+                failedCallCount.incrementAndGet();
+            }
+
+            metrics.recordLatency(METRIC_CALL, System.nanoTime() - startTime, successful);
+        }
+    }
+
+    /**
+     * Sends an API request with the ID Token. UserInfo stands in for our own APIs, since it
+     * accepts the ID Token the same way.
+     */
+    private int get(String idToken) throws IOException {
+        HttpRequest request = requestFactory.buildGetRequest(
+                new GenericUrl(provider.getUserInfoUrl()));
+        request.setThrowExceptionOnExecuteError(false);
+        request.getHeaders().setAuthorization("Bearer " + idToken);
+
+        long startTime = System.nanoTime();
+        HttpResponse response;
+
+        try {
+            response = request.execute();
+        } catch (IOException e) {
+            metrics.recordLatency(OIDCMetrics.ENDPOINT_API, System.nanoTime() - startTime, false);
+            throw e;
+        }
+
+        int status = response.getStatusCode();
+        response.ignore();
+
+        metrics.recordLatency(OIDCMetrics.ENDPOINT_API, System.nanoTime() - startTime,
+                status == HTTP_OK);
+
+        return status;
+    }
+
+    private Tokens refresh(final SimulatedAccount account, final Tokens seen) throws IOException {
+        if (!coalesceRefreshes) {
+            return doRefresh(account, seen);
+        }
+
+        return refreshes.execute(account.subject, new Callable<Tokens>() {
+            @Override
+            public Tokens call() throws Exception {
+                Tokens current = account.tokens;
+
+                // Someone else refreshed the tokens while we were deciding to
+                if (current != seen && !current.isExpired()) {
+                    return current;
+                }
+
+                return doRefresh(account, current);
+            }
+        });
+    }
+
+    private Tokens doRefresh(SimulatedAccount account, Tokens seen) throws IOException {
+        refreshAttemptCount.incrementAndGet();
+
+        try {
+            IdTokenResponse response = client.refreshTokens(provider.getTokenUrl(),
+                    provider.getClientId(), null, SCOPES, seen.refreshToken);
+
+            Tokens tokens = new Tokens(response, seen.refreshToken);
+            account.tokens = tokens;
+            return tokens;
+        } catch (TokenResponseException e) {
+            if (e.getContent() != null && e.getContent().contains("invalid_grant")) {
+                // The Refresh Token was rotated by somebody else, so in the app the user would
+                // have to log in again
+                lostSessionCount.incrementAndGet();
+                account.tokens = new Tokens(provider.login(account.subject), null);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a refresh storm with and without coalescing and prints the reports.
+     *
+     * Arguments: [accounts] [callers] [seconds]
+     */
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int callers = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        PrintWriter writer = new PrintWriter(System.out);
+
+        for (boolean coalesce : new boolean[] { false, true }) {
+            FakeProvider provider = new FakeProvider.Builder()
+                    .setTokenLifetimeSeconds(2)
+                    .setLatency(20, 30)
+                    .setErrorRate(0.01)
+                    .setTokenRateLimit(200)
+                    .build();
+
+            try {
+                Report report = new Builder(provider)
+                        .setAccountCount(accounts)
+                        .setCallerCount(callers)
+                        .setDuration(seconds * 1000)
+                        .setCoalesceRefreshes(coalesce)
+                        .build()
+                        .run();
+
+                writer.println(coalesce ? "With coalescing:" : "Without coalescing:");
+                report.dump("  ", writer);
+                writer.println();
+                writer.flush();
+            } finally {
+                provider.shutdown();
+            }
+        }
+    }
+
+    private static class SimulatedAccount {
+
+        final String subject;
+        volatile Tokens tokens;
+
+        SimulatedAccount(String subject) {
+            this.subject = subject;
+        }
+
+    }
+
+    private static class Tokens {
+
+        final String idToken;
+        final String refreshToken;
+        final long expiresAt;
+
+        /**
+         * @param previousRefreshToken kept if the response doesn't have a new one
+         */
+        Tokens(IdTokenResponse response, String previousRefreshToken) {
+            idToken = response.getIdToken();
+            refreshToken = response.getRefreshToken() != null
+                    ? response.getRefreshToken() : previousRefreshToken;
+            expiresAt = System.currentTimeMillis() + response.getExpiresInSeconds() * 1000;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+    }
+
+    /**
+     * What happened during a run, as seen by the callers and by the provider.
+     */
+    public static class Report {
+
+        public final long durationMillis;
+
+        public final long callCount;
+        public final long failedCallCount;
+
+        /** Refreshes that callers actually sent, after coalescing. */
+        public final long refreshAttemptCount;
+
+        /** Accounts that had to be logged in again because their Refresh Token was rejected. */
+        public final long lostSessionCount;
+
+        public final long providerRequestCount;
+        public final long providerTokenRequestCount;
+        public final long providerRefreshCount;
+        public final long providerInvalidGrantCount;
+        public final long providerRateLimitedCount;
+        public final long providerServerErrorCount;
+
+        /** Latencies of whole calls, refreshes and retries included, and of each request. */
+        public final InMemoryMetrics metrics;
+
+        Report(LoadDriver driver, long durationMillis) {
+            this.durationMillis = durationMillis;
+
+            callCount = driver.callCount.get();
+            failedCallCount = driver.failedCallCount.get();
+            refreshAttemptCount = driver.refreshAttemptCount.get();
+            lostSessionCount = driver.lostSessionCount.get();
+
+            providerRequestCount = driver.provider.getRequestCount();
+            providerTokenRequestCount = driver.provider.getTokenRequestCount();
+            providerRefreshCount = driver.provider.getRefreshCount();
+            providerInvalidGrantCount = driver.provider.getInvalidGrantCount();
+            providerRateLimitedCount = driver.provider.getRateLimitedCount();
+            providerServerErrorCount = driver.provider.getServerErrorCount();
+
+            metrics = driver.metrics;
+        }
+
+        public InMemoryMetrics.Histogram getCallLatency() {
+            return metrics.getLatency(METRIC_CALL);
+        }
+
+        /**
+         * How many requests the provider had to serve for each call.
+         */
+        public double getRequestsPerCall() {
+            return callCount > 0 ? (double) providerRequestCount / callCount : 0;
+        }
+
+        /**
+         * How many Token Endpoint requests it took to get one successful refresh. 1 is ideal,
+         * anything above that is refreshes racing each other or being retried.
+         */
+        public double getTokenRequestsPerRefresh() {
+            return providerRefreshCount > 0
+                    ? (double) providerTokenRequestCount / providerRefreshCount : 0;
+        }
+
+        /**
+         * How many failed calls each failure injected by the provider turned into, i.e. 503s and
+         * 429s. Above 1 means that failures are amplified on their way to the callers.
+         */
+        public double getErrorAmplification() {
+            long injected = providerServerErrorCount + providerRateLimitedCount;
+            return injected > 0 ? (double) failedCallCount / injected : 0;
+        }
+
+        public void dump(String prefix, PrintWriter writer) {
+            InMemoryMetrics.Histogram latency = getCallLatency();
+
+            writer.println(String.format("%scalls=%d failed=%d in %d ms (%.0f calls/s)", prefix,
+                    callCount, failedCallCount, durationMillis,
+                    callCount * 1000.0 / Math.max(1, durationMillis)));
+
+            if (latency != null) {
+                writer.println(String.format("%scall latency p50=%d p90=%d p99=%d max=%d ms",
+                        prefix, latency.getPercentileMillis(50), latency.getPercentileMillis(90),
+                        latency.getPercentileMillis(99), latency.getMaxMillis()));
+            }
+
+            writer.println(String.format("%srefreshes sent=%d succeeded=%d lost sessions=%d",
+                    prefix, refreshAttemptCount, providerRefreshCount, lostSessionCount));
+            writer.println(String.format("%sprovider requests=%d token=%d invalid_grant=%d " +
+                            "429=%d 503=%d", prefix, providerRequestCount,
+                    providerTokenRequestCount, providerInvalidGrantCount,
+                    providerRateLimitedCount, providerServerErrorCount));
+            writer.println(String.format("%srequests/call=%.2f token requests/refresh=%.2f " +
+                            "error amplification=%.2f", prefix, getRequestsPerCall(),
+                    getTokenRequestsPerRefresh(), getErrorAmplification()));
+
+            metrics.dump(prefix, writer);
+        }
+
+    }
+
+    public static class Builder {
+
+        private final FakeProvider provider;
+        private OIDCClient client;
+
+        private int accountCount = 50;
+        private int callerCount = 32;
+        private long durationMillis = 10 * 1000;
+        private boolean coalesceRefreshes = true;
+        private long seed;
+
+        public Builder(FakeProvider provider) {
+            this.provider = provider;
+        }
+
+        /**
+         * The client to refresh tokens with. By default, a new one is created with a connection
+         * pool as big as the number of callers.
+         */
+        public Builder setClient(OIDCClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder setAccountCount(int accountCount) {
+            this.accountCount = accountCount;
+            return this;
+        }
+
+        /**
+         * How many threads make calls at the same time.
+         */
+        public Builder setCallerCount(int callerCount) {
+            this.callerCount = callerCount;
+            return this;
+        }
+
+        public Builder setDuration(long durationMillis) {
+            this.durationMillis = durationMillis;
+            return this;
+        }
+
+        /**
+         * Whether concurrent refreshes of the same account share one request. Defaults to true.
+         */
+        public Builder setCoalesceRefreshes(boolean coalesceRefreshes) {
+            this.coalesceRefreshes = coalesceRefreshes;
+            return this;
+        }
+
+        /**
+         * Seeds the callers' choice of accounts, so that runs pick the same sequences.
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public LoadDriver build() {
+            return new LoadDriver(this);
+        }
+
+    }
+
+}
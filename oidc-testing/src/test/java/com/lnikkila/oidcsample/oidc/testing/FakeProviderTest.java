@@ -0,0 +1,105 @@
+package com.lnikkila.oidcsample.oidc.testing;
+
+import com.google.api.client.auth.oauth2.TokenResponseException;
+import com.google.api.client.auth.openidconnect.IdTokenResponse;
+import com.lnikkila.oidcsample.oidc.OIDCClient;
+
+import junit.framework.TestCase;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Runs the client through a whole login against the fake provider, and a short refresh storm
+ * through the load driver.
+ */
+public class FakeProviderTest extends TestCase {
+
+    private static final String REDIRECT_URL = "app://oidc-test/callback";
+    private static final String[] SCOPES = { "openid", "offline_access" };
+
+    private FakeProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new FakeProvider.Builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.shutdown();
+        super.tearDown();
+    }
+
+    public void testLoginRefreshAndUserInfo() throws Exception {
+        OIDCClient client = new OIDCClient.Builder()
+                .setIssuer(provider.getIssuer())
+                .setKeySetUrl(provider.getKeySetUrl())
+                .setDiscoveryUrl(provider.getDiscoveryUrl())
+                .build();
+
+        assertEquals(provider.getTokenUrl(),
+                client.getProviderConfiguration().getTokenEndpoint());
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(provider.getAuthorizationUrl()
+                + "?response_type=code&login_hint=jane&state=xyz&redirect_uri="
+                + REDIRECT_URL).openConnection();
+        connection.setInstanceFollowRedirects(false);
+
+        assertEquals(302, connection.getResponseCode());
+
+        String location = connection.getHeaderField("Location");
+        assertTrue(location, location.startsWith(REDIRECT_URL + "?code="));
+        assertTrue(location, location.endsWith("&state=xyz"));
+
+        String code = location.substring(location.indexOf("code=") + 5, location.indexOf('&'));
+
+        // The ID Token's signature is verified against the provider's key set
+        IdTokenResponse tokens = client.requestTokens(provider.getTokenUrl(), REDIRECT_URL,
+                provider.getClientId(), null, code);
+
+        Map userInfo = client.getUserInfo(provider.getUserInfoUrl(), tokens.getIdToken());
+        assertEquals("jane", userInfo.get("sub"));
+
+        IdTokenResponse refreshed = client.refreshTokens(provider.getTokenUrl(),
+                provider.getClientId(), null, SCOPES, tokens.getRefreshToken());
+        assertFalse(tokens.getRefreshToken().equals(refreshed.getRefreshToken()));
+
+        // The old Refresh Token was rotated away
+        try {
+            client.refreshTokens(provider.getTokenUrl(), provider.getClientId(), null, SCOPES,
+                    tokens.getRefreshToken());
+            fail();
+        } catch (TokenResponseException e) {
+            assertEquals(400, e.getStatusCode());
+            assertTrue(e.getContent().contains("invalid_grant"));
+        }
+
+        assertEquals(1, provider.getRefreshCount());
+        assertEquals(1, provider.getInvalidGrantCount());
+    }
+
+    public void testCoalescedRefreshStormKeepsEverySession() throws Exception {
+        provider.shutdown();
+        provider = new FakeProvider.Builder()
+                .setTokenLifetimeSeconds(1)
+                .setLatency(20, 0)
+                .build();
+
+        LoadDriver.Report report = new LoadDriver.Builder(provider)
+                .setAccountCount(4)
+                .setCallerCount(16)
+                .setDuration(2500)
+                .build()
+                .run();
+
+        assertTrue(report.callCount > 0);
+        assertTrue(report.providerRefreshCount > 0);
+        assertEquals(0, report.failedCallCount);
+        assertEquals(0, report.lostSessionCount);
+        assertEquals(0, report.providerInvalidGrantCount);
+    }
+
+}